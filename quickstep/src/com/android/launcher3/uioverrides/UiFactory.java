@@ -236,6 +236,11 @@ public class UiFactory {
         return true;
     }
 
+    public static void dump(Launcher launcher, String prefix, PrintWriter writer) {
+        RecentsView overview = launcher.getOverviewPanel();
+        overview.dump(prefix, writer);
+    }
+
     public static void prepareToShowOverview(Launcher launcher) {
         RecentsView overview = launcher.getOverviewPanel();
         if (overview.getVisibility() != VISIBLE || overview.getContentAlpha() == 0) {
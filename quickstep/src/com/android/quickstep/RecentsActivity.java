@@ -285,5 +285,6 @@ public class RecentsActivity extends BaseDraggingActivity {
         super.dump(prefix, fd, writer, args);
         writer.println(prefix + "Misc:");
         dumpMisc(writer);
+        mFallbackRecentsView.dump(prefix, writer);
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import java.io.PrintWriter;
+
+/**
+ * Decides which tasks of the recents list should have their data loaded, based on the page at
+ * the center of the screen and on how fast the list is scrolling.
+ *
+ * Tasks near the center are always loaded. While scrolling, the window is widened in the
+ * direction of the scroll so that thumbnails are ready by the time the tasks reach the screen.
+ * Tasks which are already loaded are only unloaded once they are a page outside of the window,
+ * so that swiping back and forth between pages does not reload the same tasks.
+ */
+public class TaskPrefetchPolicy {
+
+    // Number of pages loaded on each side of the center page when not scrolling.
+    private static final int BASE_RADIUS = 2;
+    // How far ahead of the scroll tasks are loaded, as the time to scroll through them.
+    private static final float LOOKAHEAD_SECONDS = 0.25f;
+    private static final int MAX_EXTRA_PAGES_AHEAD = 6;
+    // Number of pages outside of the window in which loaded tasks are kept.
+    private static final int HYSTERESIS_PAGES = 1;
+
+    // Samples further apart than this do not describe the current scroll.
+    private static final long MAX_SAMPLE_INTERVAL_MS = 100;
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    // Below this velocity, in pages per second, the window is not widened.
+    private static final float MIN_FLING_VELOCITY = 1f;
+
+    private float mLastPosition;
+    private long mLastSampleTime = -1;
+    // In pages per second, positive when scrolling towards higher task indices.
+    private float mVelocity;
+
+    private int mLower;
+    private int mUpper;
+
+    private int mLoadCount;
+    private int mUnloadCount;
+    private int mReadyCount;
+    private int mNotReadyCount;
+    private int mFlingReadyCount;
+    private int mFlingNotReadyCount;
+    // Tasks already on screen when the list is shown, which the window could not prefetch.
+    private int mOpenReadyCount;
+    private int mOpenNotReadyCount;
+
+    /**
+     * Records the scroll position, in pages from the first task, at {@param timeMs}.
+     */
+    public void onScroll(float position, long timeMs) {
+        if (mLastSampleTime >= 0 && timeMs > mLastSampleTime) {
+            long interval = timeMs - mLastSampleTime;
+            float velocity = interval > MAX_SAMPLE_INTERVAL_MS ? 0
+                    : (position - mLastPosition) * 1000 / interval;
+            mVelocity = mVelocity * VELOCITY_SMOOTHING + velocity * (1 - VELOCITY_SMOOTHING);
+        }
+        mLastPosition = position;
+        mLastSampleTime = timeMs;
+    }
+
+    /**
+     * Called when the list stopped scrolling, so that the window shrinks back around the center.
+     */
+    public void onScrollStopped() {
+        mVelocity = 0;
+        mLastSampleTime = -1;
+    }
+
+    public boolean isScrolling() {
+        return mVelocity != 0;
+    }
+
+    /**
+     * Updates the window of tasks to load around {@param centerIndex}.
+     */
+    public void updateWindow(int centerIndex, int taskCount) {
+        int extraPages = 0;
+        float speed = Math.abs(mVelocity);
+        if (speed >= MIN_FLING_VELOCITY) {
+            extraPages = Math.min(MAX_EXTRA_PAGES_AHEAD,
+                    (int) Math.ceil(speed * LOOKAHEAD_SECONDS));
+        }
+        int lower = centerIndex - BASE_RADIUS - (mVelocity < 0 ? extraPages : 0);
+        int upper = centerIndex + BASE_RADIUS + (mVelocity > 0 ? extraPages : 0);
+        mLower = Math.max(0, lower);
+        mUpper = Math.min(upper, taskCount - 1);
+    }
+
+    /**
+     * Returns whether the task at {@param index} should be loaded.
+     */
+    public boolean shouldLoad(int index) {
+        return mLower <= index && index <= mUpper;
+    }
+
+    /**
+     * Returns whether the task at {@param index}, which is already loaded, should stay loaded.
+     */
+    public boolean shouldKeep(int index) {
+        return mLower - HYSTERESIS_PAGES <= index && index <= mUpper + HYSTERESIS_PAGES;
+    }
+
+    public void onTaskLoaded() {
+        mLoadCount++;
+    }
+
+    public void onTaskUnloaded() {
+        mUnloadCount++;
+    }
+
+    /**
+     * Called when a task comes on screen, with whether its thumbnail was already loaded.
+     * {@param onOpen} is true for the tasks on screen when the list is shown, which are counted
+     * separately as they were not loaded ahead of time.
+     */
+    public void onTaskOnScreen(boolean thumbnailReady, boolean onOpen) {
+        if (onOpen) {
+            if (thumbnailReady) {
+                mOpenReadyCount++;
+            } else {
+                mOpenNotReadyCount++;
+            }
+            return;
+        }
+        boolean flinging = Math.abs(mVelocity) >= MIN_FLING_VELOCITY;
+        if (thumbnailReady) {
+            mReadyCount++;
+            if (flinging) {
+                mFlingReadyCount++;
+            }
+        } else {
+            mNotReadyCount++;
+            if (flinging) {
+                mFlingNotReadyCount++;
+            }
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "TaskPrefetchPolicy: window=[" + mLower + ", " + mUpper + "]"
+                + " velocity=" + mVelocity);
+        writer.println(prefix + "  loads=" + mLoadCount + " unloads=" + mUnloadCount);
+        writer.println(prefix + "  thumbnailReadyBeforeVisible="
+                + getRate(mReadyCount, mNotReadyCount)
+                + " whileFlinging=" + getRate(mFlingReadyCount, mFlingNotReadyCount)
+                + " onOpen=" + getRate(mOpenReadyCount, mOpenNotReadyCount));
+    }
+
+    private static String getRate(int ready, int notReady) {
+        int total = ready + notReady;
+        return ready + "/" + total + (total == 0 ? "" : " (" + (ready * 100 / total) + "%)");
+    }
+}
@@ -41,6 +41,7 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.support.annotation.Nullable;
 import android.text.Layout;
@@ -79,6 +80,7 @@ import com.android.quickstep.QuickScrubController;
 import com.android.quickstep.RecentsModel;
 import com.android.quickstep.TaskUtils;
 import com.android.quickstep.util.ClipAnimationHelper;
+import com.android.quickstep.util.TaskPrefetchPolicy;
 import com.android.quickstep.util.TaskViewDrawable;
 import com.android.systemui.shared.recents.model.RecentsTaskLoadPlan;
 import com.android.systemui.shared.recents.model.RecentsTaskLoader;
@@ -90,6 +92,7 @@ import com.android.systemui.shared.system.BackgroundExecutor;
 import com.android.systemui.shared.system.PackageManagerWrapper;
 import com.android.systemui.shared.system.TaskStackChangeListener;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.function.Consumer;
 
@@ -134,6 +137,11 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
     private final ScrollState mScrollState = new ScrollState();
     // Keeps track of the previously known visible tasks for purposes of loading/unloading task data
     private final SparseBooleanArray mHasVisibleTaskData = new SparseBooleanArray();
+    private final TaskPrefetchPolicy mPrefetchPolicy = new TaskPrefetchPolicy();
+    // Tasks which are currently on screen, to report whether their thumbnail was ready in time.
+    private final SparseBooleanArray mTaskOnScreen = new SparseBooleanArray();
+    // Whether the tasks on screen were recorded since the list was shown.
+    private boolean mOnScreenTasksTracked;
 
     /**
      * TODO: Call reloadIdNeeded in onTaskStackChanged.
@@ -552,6 +560,10 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
 
             // After scrolling, update the visible task's data
             loadVisibleTaskData();
+        } else if (mPrefetchPolicy.isScrolling()) {
+            // Shrink the window back now that the scroll settled
+            mPrefetchPolicy.onScrollStopped();
+            loadVisibleTaskData();
         }
 
         // Update the high res thumbnail loader
@@ -587,8 +599,8 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
     }
 
     /**
-     * Iterates through all thet asks, and loads the associated task data for newly visible tasks,
-     * and unloads the associated task data for tasks that are no longer visible.
+     * Iterates through all the tasks, and loads the associated task data for tasks which are
+     * in the prefetch window, and unloads the associated task data for tasks that left it.
      */
     public void loadVisibleTaskData() {
         if (!mOverviewStateEnabled) {
@@ -599,32 +611,55 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
         RecentsTaskLoader loader = mModel.getRecentsTaskLoader();
         int centerPageIndex = getPageNearestToCenterOfScreen();
         int numChildren = getTaskViewCount();
-        int lower = Math.max(0, centerPageIndex - 2);
-        int upper = Math.min(centerPageIndex + 2, numChildren - 1);
+        int pageWidth = getNormalChildWidth() + mPageSpacing;
+        if (pageWidth > 0) {
+            // Page indices grow with the scroll unless the pages are laid out from the right
+            int scrollX = mIsRtl ? -getScrollX() : getScrollX();
+            mPrefetchPolicy.onScroll((float) scrollX / pageWidth, SystemClock.uptimeMillis());
+        }
+        mPrefetchPolicy.updateWindow(centerPageIndex, numChildren);
+        int[] onScreenTasks = getVisibleChildrenRange();
+        int firstOnScreen = onScreenTasks[0];
+        int lastOnScreen = onScreenTasks[1];
 
         // Update the task data for the in/visible children
         for (int i = 0; i < numChildren; i++) {
             TaskView taskView = (TaskView) getChildAt(i);
             Task task = taskView.getTask();
-            boolean visible = lower <= i && i <= upper;
+            if (firstOnScreen <= i && i <= lastOnScreen) {
+                if (!mTaskOnScreen.get(task.key.id) && task != mTmpRunningTask) {
+                    mPrefetchPolicy.onTaskOnScreen(taskView.getThumbnail().hasThumbnail(),
+                            !mOnScreenTasksTracked);
+                }
+                mTaskOnScreen.put(task.key.id, true);
+            } else {
+                mTaskOnScreen.delete(task.key.id);
+            }
+            boolean loaded = mHasVisibleTaskData.get(task.key.id);
+            boolean visible = loaded ? mPrefetchPolicy.shouldKeep(i)
+                    : mPrefetchPolicy.shouldLoad(i);
             if (visible) {
                 if (task == mTmpRunningTask) {
                     // Skip loading if this is the task that we are animating into
                     continue;
                 }
-                if (!mHasVisibleTaskData.get(task.key.id)) {
+                if (!loaded) {
                     loader.loadTaskData(task);
                     loader.getHighResThumbnailLoader().onTaskVisible(task);
+                    mPrefetchPolicy.onTaskLoaded();
                 }
                 mHasVisibleTaskData.put(task.key.id, visible);
             } else {
-                if (mHasVisibleTaskData.get(task.key.id)) {
+                if (loaded) {
                     loader.unloadTaskData(task);
                     loader.getHighResThumbnailLoader().onTaskInvisible(task);
+                    mPrefetchPolicy.onTaskUnloaded();
                 }
                 mHasVisibleTaskData.delete(task.key.id);
             }
         }
+        // The tasks may not be bound yet when the list is shown.
+        mOnScreenTasksTracked |= numChildren > 0;
     }
 
     /**
@@ -641,6 +676,15 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
             }
         }
         mHasVisibleTaskData.clear();
+        mTaskOnScreen.clear();
+        mOnScreenTasksTracked = false;
+        mPrefetchPolicy.onScrollStopped();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "RecentsView: loadedTasks=" + mHasVisibleTaskData.size()
+                + " onScreenTasks=" + mTaskOnScreen.size());
+        mPrefetchPolicy.dump(prefix + "  ", writer);
     }
 
     protected void onAllTasksRemoved() {
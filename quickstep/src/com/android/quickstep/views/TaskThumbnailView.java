@@ -146,6 +146,10 @@ public class TaskThumbnailView extends View {
         updateThumbnailPaintFilter();
     }
 
+    public boolean hasThumbnail() {
+        return mThumbnailData != null;
+    }
+
     public void setDimAlphaMultipler(float dimAlphaMultipler) {
         mDimAlphaMultiplier = dimAlphaMultipler;
         setDimAlpha(mDimAlpha);
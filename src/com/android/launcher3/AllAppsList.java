@@ -26,6 +26,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.android.launcher3.allapps.search.AppSearchIndex;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.PackageInstallerCompat;
 import com.android.launcher3.util.FlagOp;
@@ -52,6 +53,8 @@ public class AllAppsList {
     public ArrayList<AppInfo> removed = new ArrayList<>();
     /** The list of apps that have been modified since the last notify() call. */
     public ArrayList<AppInfo> modified = new ArrayList<>();
+    /** The title index used for searching, kept in sync with {@link #data}. */
+    public final AppSearchIndex searchIndex = new AppSearchIndex();
 
     private IconCache mIconCache;
 
@@ -85,6 +88,7 @@ public class AllAppsList {
 
         data.add(info);
         added.add(info);
+        searchIndex.addOrUpdate(info);
     }
 
     public void addPromiseApp(Context context,
@@ -97,6 +101,7 @@ public class AllAppsList {
             mIconCache.getTitleAndIcon(info, info.usingLowResIcon);
             data.add(info);
             added.add(info);
+            searchIndex.addOrUpdate(info);
         }
     }
 
@@ -104,6 +109,7 @@ public class AllAppsList {
         // the <em>removed</em> list is handled by the caller
         // so not adding it here
         data.remove(appInfo);
+        searchIndex.remove(appInfo);
     }
 
     public void clear() {
@@ -112,6 +118,7 @@ public class AllAppsList {
         added.clear();
         removed.clear();
         modified.clear();
+        searchIndex.clear();
     }
 
     public int size() {
@@ -147,6 +154,7 @@ public class AllAppsList {
                 data.remove(i);
             }
         }
+        searchIndex.removePackage(packageName, user);
     }
 
     /**
@@ -168,6 +176,7 @@ public class AllAppsList {
         for (AppInfo info : data) {
             if (info.user.equals(user) && packages.contains(info.componentName.getPackageName())) {
                 mIconCache.updateTitleAndIcon(info);
+                searchIndex.addOrUpdate(info);
                 outUpdates.add(info);
             }
         }
@@ -191,6 +200,7 @@ public class AllAppsList {
                         Log.w(TAG, "Shortcut will be removed due to app component name change.");
                         removed.add(applicationInfo);
                         data.remove(i);
+                        searchIndex.remove(applicationInfo);
                     }
                 }
             }
@@ -203,6 +213,7 @@ public class AllAppsList {
                     add(new AppInfo(context, info, user), info);
                 } else {
                     mIconCache.getTitleAndIcon(applicationInfo, info, true /* useLowResIcon */);
+                    searchIndex.addOrUpdate(applicationInfo);
                     modified.add(applicationInfo);
                 }
             }
@@ -217,6 +228,7 @@ public class AllAppsList {
                     data.remove(i);
                 }
             }
+            searchIndex.removePackage(packageName, user);
         }
     }
 
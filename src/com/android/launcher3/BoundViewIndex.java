@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ComponentName;
+import android.view.View;
+
+import com.android.launcher3.folder.FolderIcon;
+import com.android.launcher3.util.LongArrayMap;
+import com.android.launcher3.util.MultiHashMap;
+import com.android.launcher3.util.PackageUserKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of the views bound in the workspace and the hotseat, including the contents of their
+ * folders, by item id and by the package of their target. This is the same set of views as
+ * {@link Workspace#mapOverItems} visits, so that updates for a few items or packages can find
+ * their views without walking all the pages.
+ *
+ * The index is kept up to date by {@link ShortcutAndWidgetContainer} as views are added and
+ * removed. The contents of a folder are only indexed while its icon is.
+ */
+public class BoundViewIndex {
+
+    private final LongArrayMap<View> mViewsById = new LongArrayMap<>();
+    private final MultiHashMap<PackageUserKey, View> mViewsByPackage = new MultiHashMap<>();
+    // The keys each view was indexed with, as its tag can change while it is bound.
+    private final HashMap<View, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Called when {@param view} is added to a container, {@param inFolder} being true if the
+     * container is part of a folder.
+     */
+    public void onViewAdded(View view, boolean inFolder) {
+        if (!(view.getTag() instanceof ItemInfo)) {
+            // Not an item, like the QuickSpace
+            return;
+        }
+        ItemInfo info = (ItemInfo) view.getTag();
+        if (inFolder && !(mViewsById.get(info.container) instanceof FolderIcon)) {
+            // The folder is not bound yet, its contents are added along with its icon.
+            return;
+        }
+        add(view, info);
+        if (view instanceof FolderIcon) {
+            for (View child : ((FolderIcon) view).getFolder().getItemsInReadingOrder()) {
+                if (child.getTag() instanceof ItemInfo) {
+                    add(child, (ItemInfo) child.getTag());
+                }
+            }
+        }
+    }
+
+    public void onViewRemoved(View view) {
+        if (remove(view) && view instanceof FolderIcon) {
+            for (View child : ((FolderIcon) view).getFolder().getItemsInReadingOrder()) {
+                remove(child);
+            }
+        }
+    }
+
+    /**
+     * Called when the tag of {@param view} was replaced while it is bound, to index it with the
+     * id and package of its new item.
+     */
+    public void onViewTagChanged(View view) {
+        if (mEntries.containsKey(view) && view.getTag() instanceof ItemInfo) {
+            add(view, (ItemInfo) view.getTag());
+        }
+    }
+
+    private void add(View view, ItemInfo info) {
+        remove(view);
+        Entry entry = new Entry(info.id);
+        ComponentName target = info instanceof ShortcutInfo ? info.getTargetComponent() : null;
+        if (target != null && info.user != null) {
+            entry.packageKey = new PackageUserKey(target.getPackageName(), info.user);
+            mViewsByPackage.addToList(entry.packageKey, view);
+        }
+        mEntries.put(view, entry);
+        // A new view for the same item replaces the one bound before it.
+        mViewsById.put(info.id, view);
+    }
+
+    private boolean remove(View view) {
+        Entry entry = mEntries.remove(view);
+        if (entry == null) {
+            return false;
+        }
+        if (mViewsById.get(entry.id) == view) {
+            mViewsById.remove(entry.id);
+        }
+        if (entry.packageKey != null) {
+            ArrayList<View> views = mViewsByPackage.get(entry.packageKey);
+            if (views != null) {
+                views.remove(view);
+                if (views.isEmpty()) {
+                    mViewsByPackage.remove(entry.packageKey);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the view bound for {@param info}, or null if its view is not bound or is bound
+     * for a different {@link ItemInfo} with the same id.
+     */
+    public View getView(ItemInfo info) {
+        View view = mViewsById.get(info.id);
+        return view != null && view.getTag() == info ? view : null;
+    }
+
+    /**
+     * Returns the view of the item with {@param id}, which can be a folder.
+     */
+    public View getView(long id) {
+        return mViewsById.get(id);
+    }
+
+    /**
+     * Returns the views of the shortcuts targeting the package of {@param key}.
+     */
+    public List<View> getViews(PackageUserKey key) {
+        ArrayList<View> views = mViewsByPackage.get(key);
+        return views == null ? Collections.<View>emptyList() : views;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    private static class Entry {
+        final long id;
+        PackageUserKey packageKey;
+
+        Entry(long id) {
+            this.id = id;
+        }
+    }
+}
@@ -60,6 +60,7 @@ import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.ParcelableSparseArray;
 import com.android.launcher3.util.Themes;
 import com.android.launcher3.util.Thunk;
+import com.android.launcher3.util.VacantRegionIndex;
 import com.android.launcher3.widget.LauncherAppWidgetHostView;
 
 import java.lang.annotation.Retention;
@@ -68,7 +69,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Stack;
 
 public class CellLayout extends ViewGroup {
     public static final int WORKSPACE_ACCESSIBILITY_DRAG = 2;
@@ -99,6 +99,8 @@ public class CellLayout extends ViewGroup {
 
     private GridOccupancy mOccupied;
     private GridOccupancy mTmpOccupied;
+    // Vacant regions of mOccupied, to find where to drop an item without scanning the grid.
+    private VacantRegionIndex mVacantRegions;
 
     private OnTouchListener mInterceptTouchListener;
     private final StylusEventHelper mStylusEventHelper;
@@ -207,6 +209,7 @@ public class CellLayout extends ViewGroup {
         mCountY = grid.inv.numRows;
         mOccupied =  new GridOccupancy(mCountX, mCountY);
         mTmpOccupied = new GridOccupancy(mCountX, mCountY);
+        mVacantRegions = new VacantRegionIndex(mOccupied, mCountX, mCountY);
 
         mPreviousReorderDirection[0] = INVALID_DIRECTION;
         mPreviousReorderDirection[1] = INVALID_DIRECTION;
@@ -361,7 +364,7 @@ public class CellLayout extends ViewGroup {
         mCountY = y;
         mOccupied = new GridOccupancy(mCountX, mCountY);
         mTmpOccupied = new GridOccupancy(mCountX, mCountY);
-        mTempRectStack.clear();
+        mVacantRegions = new VacantRegionIndex(mOccupied, mCountX, mCountY);
         mShortcutsAndWidgets.setCellDimensions(mCellWidth, mCellHeight, mCountX, mCountY);
         requestLayout();
     }
@@ -441,7 +444,7 @@ public class CellLayout extends ViewGroup {
             cd.setBounds(0, 0,  mCellWidth, mCellHeight);
             for (int i = 0; i < mCountX; i++) {
                 for (int j = 0; j < mCountY; j++) {
-                    if (mOccupied.cells[i][j]) {
+                    if (mOccupied.isOccupied(i, j)) {
                         cellToPoint(i, j, pt);
                         canvas.save();
                         canvas.translate(pt[0], pt[1]);
@@ -1029,21 +1032,6 @@ public class CellLayout extends ViewGroup {
                 result, resultSpan);
     }
 
-    private final Stack<Rect> mTempRectStack = new Stack<>();
-    private void lazyInitTempRectStack() {
-        if (mTempRectStack.isEmpty()) {
-            for (int i = 0; i < mCountX * mCountY; i++) {
-                mTempRectStack.push(new Rect());
-            }
-        }
-    }
-
-    private void recycleTempRects(Stack<Rect> used) {
-        while (!used.isEmpty()) {
-            mTempRectStack.push(used.pop());
-        }
-    }
-
     /**
      * Find a vacant area that will fit the given bounds nearest the requested
      * cell location. Uses Euclidean distance to score multiple vacant areas.
@@ -1062,8 +1050,6 @@ public class CellLayout extends ViewGroup {
      */
     private int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX,
             int spanY, boolean ignoreOccupied, int[] result, int[] resultSpan) {
-        lazyInitTempRectStack();
-
         // For items with a spanX / spanY > 1, the passed in point (pixelX, pixelY) corresponds
         // to the center of the item, but we are searching based on the top-left cell, so
         // we translate the point over to correspond to the top-left.
@@ -1073,98 +1059,55 @@ public class CellLayout extends ViewGroup {
         // Keep track of best-scoring drop area
         final int[] bestXY = result != null ? result : new int[2];
         double bestDistance = Double.MAX_VALUE;
-        final Rect bestRect = new Rect(-1, -1, -1, -1);
-        final Stack<Rect> validRegions = new Stack<>();
-
-        final int countX = mCountX;
-        final int countY = mCountY;
+        final int[] cellXY = mTmpPoint;
 
         if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
                 spanX < minSpanX || spanY < minSpanY) {
             return bestXY;
         }
 
-        for (int y = 0; y < countY - (minSpanY - 1); y++) {
-            inner:
-            for (int x = 0; x < countX - (minSpanX - 1); x++) {
-                int ySize = -1;
-                int xSize = -1;
-                if (ignoreOccupied) {
-                    // First, let's see if this thing fits anywhere
-                    for (int i = 0; i < minSpanX; i++) {
-                        for (int j = 0; j < minSpanY; j++) {
-                            if (mOccupied.cells[x + i][y + j]) {
-                                continue inner;
-                            }
-                        }
-                    }
-                    xSize = minSpanX;
-                    ySize = minSpanY;
-
-                    // We know that the item will fit at _some_ acceptable size, now let's see
-                    // how big we can make it. We'll alternate between incrementing x and y spans
-                    // until we hit a limit.
-                    boolean incX = true;
-                    boolean hitMaxX = xSize >= spanX;
-                    boolean hitMaxY = ySize >= spanY;
-                    while (!(hitMaxX && hitMaxY)) {
-                        if (incX && !hitMaxX) {
-                            for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX -1 || mOccupied.cells[x + xSize][y + j]) {
-                                    // We can't move out horizontally
-                                    hitMaxX = true;
-                                }
-                            }
-                            if (!hitMaxX) {
-                                xSize++;
-                            }
-                        } else if (!hitMaxY) {
-                            for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || mOccupied.cells[x + i][y + ySize]) {
-                                    // We can't move out vertically
-                                    hitMaxY = true;
-                                }
-                            }
-                            if (!hitMaxY) {
-                                ySize++;
-                            }
+        if (!ignoreOccupied) {
+            // Every cell is a candidate, so just pick the nearest one.
+            for (int y = 0; y < mCountY - (minSpanY - 1); y++) {
+                for (int x = 0; x < mCountX - (minSpanX - 1); x++) {
+                    cellToCenterPoint(x, y, cellXY);
+                    double distance = Math.hypot(cellXY[0] - pixelX,  cellXY[1] - pixelY);
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        bestXY[0] = x;
+                        bestXY[1] = y;
+                        if (resultSpan != null) {
+                            resultSpan[0] = -1;
+                            resultSpan[1] = -1;
                         }
-                        hitMaxX |= xSize >= spanX;
-                        hitMaxY |= ySize >= spanY;
-                        incX = !incX;
                     }
-                    incX = true;
-                    hitMaxX = xSize >= spanX;
-                    hitMaxY = ySize >= spanY;
                 }
-                final int[] cellXY = mTmpPoint;
+            }
+        } else {
+            VacantRegionIndex regions = mVacantRegions;
+            regions.update(minSpanX, minSpanY, spanX, spanY);
+            int bestLeft = -1, bestTop = -1, bestRight = -1, bestBottom = -1;
+            for (int i = 0; i < regions.getRegionCount(); i++) {
+                int x = regions.getLeft(i);
+                int y = regions.getTop(i);
                 cellToCenterPoint(x, y, cellXY);
-
-                // We verify that the current rect is not a sub-rect of any of our previous
-                // candidates. In this case, the current rect is disqualified in favour of the
-                // containing rect.
-                Rect currentRect = mTempRectStack.pop();
-                currentRect.set(x, y, x + xSize, y + ySize);
-                boolean contained = false;
-                for (Rect r : validRegions) {
-                    if (r.contains(currentRect)) {
-                        contained = true;
-                        break;
-                    }
-                }
-                validRegions.push(currentRect);
                 double distance = Math.hypot(cellXY[0] - pixelX,  cellXY[1] - pixelY);
 
-                if ((distance <= bestDistance && !contained) ||
-                        currentRect.contains(bestRect)) {
+                // A region contained by a previous candidate is disqualified in favour of the
+                // containing region, unless it contains the best region so far.
+                if ((distance <= bestDistance && !regions.isContained(i)) ||
+                        regions.contains(i, bestLeft, bestTop, bestRight, bestBottom)) {
                     bestDistance = distance;
                     bestXY[0] = x;
                     bestXY[1] = y;
                     if (resultSpan != null) {
-                        resultSpan[0] = xSize;
-                        resultSpan[1] = ySize;
+                        resultSpan[0] = regions.getWidth(i);
+                        resultSpan[1] = regions.getHeight(i);
                     }
-                    bestRect.set(currentRect);
+                    bestLeft = x;
+                    bestTop = y;
+                    bestRight = x + regions.getWidth(i);
+                    bestBottom = y + regions.getHeight(i);
                 }
             }
         }
@@ -1174,7 +1117,6 @@ public class CellLayout extends ViewGroup {
             bestXY[0] = -1;
             bestXY[1] = -1;
         }
-        recycleTempRects(validRegions);
         return bestXY;
     }
 
@@ -1189,8 +1131,8 @@ public class CellLayout extends ViewGroup {
      * @param spanX Horizontal span of the object.
      * @param spanY Vertical span of the object.
      * @param direction The favored direction in which the views should move from x, y
-     * @param occupied The array which represents which cells in the CellLayout are occupied
-     * @param blockOccupied The array which represents which cells in the specified block (cellX,
+     * @param occupied The grid which represents which cells in the CellLayout are occupied
+     * @param blockOccupied The grid which represents which cells in the specified block (cellX,
      *        cellY, spanX, spanY) are occupied. This is used when try to move a group of views.
      * @param result Array in which to place the result, or null (in which case a new array will
      *        be allocated)
@@ -1198,7 +1140,7 @@ public class CellLayout extends ViewGroup {
      *         nearest the requested location.
      */
     private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
-            boolean[][] occupied, boolean blockOccupied[][], int[] result) {
+            GridOccupancy occupied, GridOccupancy blockOccupied, int[] result) {
         // Keep track of best-scoring drop area
         final int[] bestXY = result != null ? result : new int[2];
         float bestDistance = Float.MAX_VALUE;
@@ -1208,15 +1150,11 @@ public class CellLayout extends ViewGroup {
         final int countY = mCountY;
 
         for (int y = 0; y < countY - (spanY - 1); y++) {
-            inner:
             for (int x = 0; x < countX - (spanX - 1); x++) {
                 // First, let's see if this thing fits anywhere
-                for (int i = 0; i < spanX; i++) {
-                    for (int j = 0; j < spanY; j++) {
-                        if (occupied[x + i][y + j] && (blockOccupied == null || blockOccupied[i][j])) {
-                            continue inner;
-                        }
-                    }
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY)
+                        : !occupied.isRegionVacant(x, y, blockOccupied)) {
+                    continue;
                 }
 
                 float distance = (float) Math.hypot(x - cellX, y - cellY);
@@ -1253,7 +1191,7 @@ public class CellLayout extends ViewGroup {
         mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
 
         findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction,
-                mTmpOccupied.cells, null, mTempLocation);
+                mTmpOccupied, null, mTempLocation);
 
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
             c.cellX = mTempLocation[0];
@@ -1573,7 +1511,7 @@ public class CellLayout extends ViewGroup {
 
         findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
                 boundingRect.height(), direction,
-                mTmpOccupied.cells, blockOccupied.cells, mTempLocation);
+                mTmpOccupied, blockOccupied, mTempLocation);
 
         // If we successfuly found a location by pushing the block of views, we commit it
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
@@ -2518,7 +2456,7 @@ public class CellLayout extends ViewGroup {
 
     public boolean isOccupied(int x, int y) {
         if (x < mCountX && y < mCountY) {
-            return mOccupied.cells[x][y];
+            return mOccupied.isOccupied(x, y);
         } else {
             throw new RuntimeException("Position exceeds the bound of this CellLayout");
         }
@@ -66,10 +66,6 @@ public class HiddenAppsActivity extends Activity implements MultiSelectRecyclerV
         mAdapter.notifyDataSetChanged();
         // update the title
         mActionBar.setTitle(getString(R.string.hidden_app));
-        LauncherAppState appState = LauncherAppState.getInstanceNoCreate();
-        if (appState != null) {
-            appState.getModel().forceReload();
-        }
     }
 
     @Override
@@ -99,12 +95,8 @@ public class HiddenAppsActivity extends Activity implements MultiSelectRecyclerV
     @Override
     public void onItemClicked(int position) {
         mAdapter.toggleSelection(mActionBar, position);
+        // the model picks up the change from the preference and updates all apps incrementally
         mAdapter.addSelectionsToHideList(HiddenAppsActivity.this);
-        // force a model reload on every change, this avoids a full restart
-        LauncherAppState appState = LauncherAppState.getInstanceNoCreate();
-        if (appState != null) {
-            appState.getModel().forceReload();
-        }
     }
 
     private List<ResolveInfo> getInstalledApps() {
@@ -16,6 +16,11 @@
 
 package com.android.launcher3;
 
+import static com.android.launcher3.util.PriorityLaneExecutor.LANE_USER_VISIBLE;
+import static com.android.launcher3.util.PriorityLaneExecutor.getLane;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -32,6 +37,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build.VERSION;
 import android.os.Handler;
@@ -47,22 +56,39 @@ import com.android.internal.icons.IconsHandler;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.graphics.BitmapInfo;
+import com.android.launcher3.graphics.BitmapPool;
 import com.android.launcher3.graphics.BitmapRenderer;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.InstantAppResolver;
+import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
+import com.android.launcher3.util.TimingRecorder;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
@@ -81,15 +107,39 @@ public class IconCache {
 
     private static final int LOW_RES_SCALE_FACTOR = 5;
 
+    // Icons rendered in parallel when updating the DB, leaving a core for the UI thread.
+    private static final int RENDER_THREAD_COUNT =
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    @Thunk static final int MAX_RENDERS_IN_FLIGHT = RENDER_THREAD_COUNT * 2;
+
+    // Max number of components read by a single prefetch query, well under the SQLite limit on
+    // the number of arguments.
+    private static final int PREFETCH_BATCH_SIZE = 100;
+
+    // Fraction of the app memory class which the in-memory icons can use.
+    private static final int MEMORY_BUDGET_DIVISOR = 8;
+    private static final int LOW_RAM_MEMORY_BUDGET_DIVISOR = 16;
+    // Once over budget, the cache is trimmed down to this percentage of the budget so that it
+    // does not get trimmed again on the very next miss.
+    private static final int TRIM_TARGET_PERCENT = 75;
+
     @Thunk static final Object ICON_UPDATE_TOKEN = new Object();
 
+    /**
+     * An entry in the memory cache. Entries are fully populated before being added to the cache
+     * and are not modified afterwards, so that they can be read without any locking.
+     */
     public static class CacheEntry extends BitmapInfo {
         public CharSequence title = "";
         public CharSequence contentDescription = "";
         public boolean isLowResIcon;
+
+        // Last time this entry was returned by the cache, used to pick entries to trim.
+        volatile long lastAccessTime;
     }
 
-    private final HashMap<UserHandle, BitmapInfo> mDefaultIcons = new HashMap<>();
+    private final ConcurrentHashMap<UserHandle, BitmapInfo> mDefaultIcons =
+            new ConcurrentHashMap<>();
     @Thunk final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
 
     private final Context mContext;
@@ -97,8 +147,48 @@ public class IconCache {
     private final IconProvider mIconProvider;
     @Thunk final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    // Cache hits are served from this map without taking any lock.
+    private final ConcurrentHashMap<ComponentKey, CacheEntry> mCache =
+            new ConcurrentHashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    // Loads in progress, so that concurrent misses for the same key share a single load.
+    private final ConcurrentHashMap<ComponentKey, PendingLoad> mPendingLoads =
+            new ConcurrentHashMap<>();
+    // Serializes updates and removals with each other. Lookups never take this lock.
+    private final ReentrantLock mUpdateLock = new ReentrantLock();
+    // Incremented on every removal, so that a load racing with it does not cache stale data.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // Approximate size of the bitmaps in mCache, kept under mMaxCacheBytes by demoting the least
+    // recently used entries to low-res icons and then evicting them.
+    private final long mMaxCacheBytes;
+    private final AtomicLong mCacheBytes = new AtomicLong();
+    private final AtomicBoolean mTrimScheduled = new AtomicBoolean();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mSharedMissCount = new AtomicLong();
+    private final AtomicLong mSharedMissWaitNanos = new AtomicLong();
+    private final AtomicLong mDiscardedLoadCount = new AtomicLong();
+    private final AtomicLong mPrefetchCount = new AtomicLong();
+    private final AtomicLong mUpdateLockContendedCount = new AtomicLong();
+    private final AtomicLong mDemotionCount = new AtomicLong();
+    private final TimingRecorder.Histogram mMissTimes = TimingRecorder.getInstance()
+            .getHistogram(TimingRecorder.SECTION_ICON_CACHE, "miss");
+    private final TimingRecorder.Histogram mLowResMissTimes = TimingRecorder.getInstance()
+            .getHistogram(TimingRecorder.SECTION_ICON_CACHE, "miss low-res");
+    private final TimingRecorder.Histogram mSharedMissTimes = TimingRecorder.getInstance()
+            .getHistogram(TimingRecorder.SECTION_ICON_CACHE, "shared miss wait");
+
+    // Renders the icons for the DB updates, see IconUpdateTask.
+    @Thunk final ThreadPoolExecutor mRenderExecutor;
+    // < only access in worker thread >
+    @Thunk final ArrayList<IconUpdateTask> mActiveUpdateTasks = new ArrayList<>();
+    @Thunk int mLastUpdateIconCount;
+    @Thunk long mLastUpdateDuration;
+    @Thunk final AtomicLong mRenderedIconCount = new AtomicLong();
+    @Thunk final AtomicLong mRenderNanos = new AtomicLong();
+    @Thunk final AtomicLong mCommitBatchCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
     private final InstantAppResolver mInstantAppResolver;
     private final int mIconDpi;
     @Thunk final IconDB mIconDb;
@@ -124,6 +214,18 @@ public class IconCache {
         mIconProvider = IconProvider.newInstance(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
 
+        mRenderExecutor = new ThreadPoolExecutor(RENDER_THREAD_COUNT, RENDER_THREAD_COUNT,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                (r) -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "icon-renderer"));
+        mRenderExecutor.allowCoreThreadTimeOut(true);
+
+        ActivityManager am = context.getSystemService(ActivityManager.class);
+        mMaxCacheBytes = (long) am.getMemoryClass() * 1024 * 1024 / (am.isLowRamDevice()
+                ? LOW_RAM_MEMORY_BUDGET_DIVISOR : MEMORY_BUDGET_DIVISOR);
+
         mLowResOptions = new BitmapFactory.Options();
         // Always prefer RGB_565 config for low res. If the bitmap has transparency, it will
         // automatically be loaded as ALPHA_8888.
@@ -141,8 +243,10 @@ public class IconCache {
     }
 
     public void setIconPack() {
-        mIconsHandler.updatePrefs(Utilities.getPrefs(mContext)
-                .getString("pref_iconPackPackage", ""));
+        synchronized (mIconsHandler) {
+            mIconsHandler.updatePrefs(Utilities.getPrefs(mContext)
+                    .getString("pref_iconPackPackage", ""));
+        }
     }
 
     public boolean isDefaultIconPack() {
@@ -203,13 +307,29 @@ public class IconCache {
     }
 
     public Drawable getFullResIcon(LauncherActivityInfo info, boolean flattenDrawable) {
-        Drawable iconDrawable = mIconsHandler.getIconFromHandler(mContext, info);
+        Drawable iconDrawable = getIconFromHandler(info);
         if (iconDrawable != null) {
             return iconDrawable;
         }
         return mIconProvider.getIcon(info, mIconDpi, flattenDrawable);
     }
 
+    /**
+     * Returns the icon pack icon for {@param info}, if any. Icons are rendered on several threads,
+     * while the icon pack handler is not known to be thread safe.
+     */
+    private Drawable getIconFromHandler(LauncherActivityInfo info) {
+        synchronized (mIconsHandler) {
+            return mIconsHandler.getIconFromHandler(mContext, info);
+        }
+    }
+
+    private Drawable getIconFromHandler(ApplicationInfo appInfo, String packageName) {
+        synchronized (mIconsHandler) {
+            return mIconsHandler.getIconFromHandler(mContext, appInfo, packageName);
+        }
+    }
+
     protected BitmapInfo makeDefaultIcon(UserHandle user) {
         try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
             return li.createBadgedIconBitmap(
@@ -220,47 +340,48 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandle user) {
-        mCache.remove(new ComponentKey(componentName, user));
+    public void remove(ComponentName componentName, UserHandle user) {
+        mGeneration.incrementAndGet();
+        ComponentKey key = new ComponentKey(componentName, user);
+        CacheEntry entry = mCache.get(key);
+        if (entry != null) {
+            removeEntry(key, entry);
+        }
     }
 
     /**
      * Remove any records for the supplied package name from memory.
      */
-    private void removeFromMemCacheLocked(String packageName, UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key: mCache.keySet()) {
+    private void removeFromMemCache(String packageName, UserHandle user) {
+        mGeneration.incrementAndGet();
+        for (Map.Entry<ComponentKey, CacheEntry> e : mCache.entrySet()) {
+            ComponentKey key = e.getKey();
             if (key.componentName.getPackageName().equals(packageName)
                     && key.user.equals(user)) {
-                forDeletion.add(key);
+                removeEntry(key, e.getValue());
             }
         }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
     }
 
     /**
      * Remove any records for the supplied user name from memory.
      */
-     private void removeFromMemCacheLocked(UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<ComponentKey>();
-        for (ComponentKey key: mCache.keySet()) {
-            if (key.user.equals(user)) {
-                forDeletion.add(key);
+    private void removeFromMemCache(UserHandle user) {
+        mGeneration.incrementAndGet();
+        for (Map.Entry<ComponentKey, CacheEntry> e : mCache.entrySet()) {
+            if (e.getKey().user.equals(user)) {
+                removeEntry(e.getKey(), e.getValue());
             }
         }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
     }
 
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void updateIconsForPkg(String packageName, UserHandle user) {
-        removeIconsForPkg(packageName, user);
+    public void updateIconsForPkg(String packageName, UserHandle user) {
+        lockForUpdate();
         try {
+            removeIconsForPkg(packageName, user);
             PackageInfo info = mPackageManager.getPackageInfo(packageName,
                     PackageManager.GET_UNINSTALLED_PACKAGES);
             long userSerial = mUserManager.getSerialNumberForUser(user);
@@ -269,36 +390,60 @@ public class IconCache {
             }
         } catch (NameNotFoundException e) {
             Log.d(TAG, "Package not found", e);
+        } finally {
+            mUpdateLock.unlock();
         }
     }
 
     /**
      * Removes the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void removeIconsForPkg(String packageName, UserHandle user) {
-        removeFromMemCacheLocked(packageName, user);
-        long userSerial = mUserManager.getSerialNumberForUser(user);
-        mIconDb.delete(
-                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
-                new String[]{packageName + "/%", Long.toString(userSerial)});
+    public void removeIconsForPkg(String packageName, UserHandle user) {
+        lockForUpdate();
+        try {
+            removeFromMemCache(packageName, user);
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            mIconDb.delete(
+                    IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
+                    new String[]{packageName + "/%", Long.toString(userSerial)});
+        } finally {
+            mUpdateLock.unlock();
+        }
     }
 
     /**
      * Removes the entries related to the given user in memory and persistent DB.
      */
-    public synchronized void removeAllIconsForUser(UserHandle user) {
-
+    public void removeAllIconsForUser(UserHandle user) {
+        lockForUpdate();
+        try {
+            removeFromMemCache(user);
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            mIconDb.delete(
+                    IconDB.COLUMN_USER + " = ?",
+                    new String[]{Long.toString(userSerial)});
+        } finally {
+            mUpdateLock.unlock();
+        }
+    }
 
-        removeFromMemCacheLocked(user);
-        long userSerial = mUserManager.getSerialNumberForUser(user);
-        mIconDb.delete(
-                IconDB.COLUMN_USER + " = ?",
-                new String[]{Long.toString(userSerial)});
+    /**
+     * Acquires the lock used to serialize updates, keeping track of how often it was contended.
+     */
+    private void lockForUpdate() {
+        if (!mUpdateLock.tryLock()) {
+            mUpdateLockContendedCount.incrementAndGet();
+            mUpdateLock.lock();
+        }
     }
 
     public void updateDbIcons(Set<String> ignorePackagesForMainUser) {
         // Remove all active icon update tasks.
         mWorkerHandler.removeCallbacksAndMessages(ICON_UPDATE_TOKEN);
+        for (IconUpdateTask task : mActiveUpdateTasks) {
+            task.cancel();
+        }
+        mActiveUpdateTasks.clear();
 
         mIconProvider.updateSystemStateString(mContext);
         for (UserHandle user : mUserManager.getUserProfiles()) {
@@ -405,8 +550,10 @@ public class IconCache {
         if (!componentMap.isEmpty() || !appsToUpdate.isEmpty()) {
             Stack<LauncherActivityInfo> appsToAdd = new Stack<>();
             appsToAdd.addAll(componentMap.values());
-            new SerializedIconUpdateTask(userSerial, pkgInfoMap,
-                    appsToAdd, appsToUpdate).scheduleNext();
+            IconUpdateTask task = new IconUpdateTask(userSerial, pkgInfoMap,
+                    appsToAdd, appsToUpdate);
+            mActiveUpdateTasks.add(task);
+            task.start();
         }
     }
 
@@ -416,21 +563,27 @@ public class IconCache {
      *                        the memory. This is useful then the previous bitmap was created using
      *                        old data.
      */
-    @Thunk synchronized void addIconToDBAndMemCache(LauncherActivityInfo app,
+    @Thunk void addIconToDBAndMemCache(LauncherActivityInfo app,
             PackageInfo info, long userSerial, boolean replaceExisting) {
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = null;
-        if (!replaceExisting) {
-            entry = mCache.get(key);
-            // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.isLowResIcon || entry.icon == null) {
-                entry = null;
-            }
-        }
-        if (entry == null) {
-            entry = new CacheEntry();
+        CacheEntry entry = renderEntry(key, app, replaceExisting);
+        putEntry(key, entry);
+        mIconDb.insertOrReplace(newContentValues(entry, app, info, userSerial));
+    }
+
+    /**
+     * Creates a new cache entry for {@param app}. This can be called from any thread.
+     */
+    private CacheEntry renderEntry(ComponentKey key, LauncherActivityInfo app,
+            boolean replaceExisting) {
+        CacheEntry entry = new CacheEntry();
+        CacheEntry existing = replaceExisting ? null : mCache.get(key);
+        // We can't reuse the entry if the high-res icon is not present.
+        if (existing != null && !existing.isLowResIcon && existing.icon != null) {
+            existing.applyTo(entry);
+        } else {
             LauncherIcons li = LauncherIcons.obtain(mContext);
-            Drawable iconDrawable = mIconsHandler.getIconFromHandler(mContext, app);
+            Drawable iconDrawable = getIconFromHandler(app);
             if (iconDrawable == null) {
                 iconDrawable = getFullResIcon(app);
             }
@@ -444,12 +597,31 @@ public class IconCache {
         }
         entry.title = app.getLabel();
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Creates the DB row for {@param entry}, which includes compressing its icons.
+     */
+    private ContentValues newContentValues(CacheEntry entry, LauncherActivityInfo app,
+            PackageInfo info, long userSerial) {
+        // The low-res icon is only needed for the DB row, so it is drawn in a pooled bitmap which
+        // is released once compressed.
+        Bitmap lowResIcon = BitmapPool.getInstance().obtain(
+                entry.icon.getWidth() / LOW_RES_SCALE_FACTOR,
+                entry.icon.getHeight() / LOW_RES_SCALE_FACTOR, Bitmap.Config.ARGB_8888);
+        lowResIcon.eraseColor(Color.TRANSPARENT);
+        Canvas canvas = new Canvas(lowResIcon);
+        canvas.drawBitmap(entry.icon, null,
+                new Rect(0, 0, lowResIcon.getWidth(), lowResIcon.getHeight()),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        canvas.setBitmap(null);
 
-        Bitmap lowResIcon = generateLowResIcon(entry.icon);
         ContentValues values = newContentValues(entry.icon, lowResIcon, entry.color,
                 entry.title.toString(), app.getApplicationInfo().packageName);
-        addIconToDB(values, app.getComponentName(), info, userSerial);
+        BitmapPool.getInstance().release(lowResIcon);
+        addVersionInfo(values, app.getComponentName(), info, userSerial);
+        return values;
     }
 
     /**
@@ -458,11 +630,16 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
             PackageInfo info, long userSerial) {
+        addVersionInfo(values, key, info, userSerial);
+        mIconDb.insertOrReplace(values);
+    }
+
+    private static void addVersionInfo(ContentValues values, ComponentName key,
+            PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
     }
 
     /**
@@ -505,8 +682,8 @@ public class IconCache {
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
-        CacheEntry entry = cacheLocked(application.componentName,
+    public void updateTitleAndIcon(AppInfo application) {
+        CacheEntry entry = getOrLoadEntry(application.componentName,
                 Provider.<LauncherActivityInfo>of(null),
                 application.user, false, application.usingLowResIcon);
         if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
@@ -517,7 +694,7 @@ public class IconCache {
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info,
+    public void getTitleAndIcon(ItemInfoWithIcon info,
             LauncherActivityInfo activityInfo, boolean useLowResIcon) {
         // If we already have activity info, no need to use package icon
         getTitleAndIcon(info, Provider.of(activityInfo), false, useLowResIcon);
@@ -527,7 +704,7 @@ public class IconCache {
      * Fill in {@param info} with the icon and label. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
         if (info.getTargetComponent() == null) {
@@ -544,11 +721,11 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    private synchronized void getTitleAndIcon(
+    private void getTitleAndIcon(
             @NonNull ItemInfoWithIcon infoInOut,
             @NonNull Provider<LauncherActivityInfo> activityInfoProvider,
             boolean usePkgIcon, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(infoInOut.getTargetComponent(), activityInfoProvider,
+        CacheEntry entry = getOrLoadEntry(infoInOut.getTargetComponent(), activityInfoProvider,
                 infoInOut.user, usePkgIcon, useLowResIcon);
         applyCacheEntry(entry, infoInOut);
     }
@@ -556,9 +733,9 @@ public class IconCache {
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             PackageItemInfo infoInOut, boolean useLowResIcon) {
-        CacheEntry entry = getEntryForPackageLocked(
+        CacheEntry entry = getEntryForPackage(
                 infoInOut.packageName, infoInOut.user, useLowResIcon);
         applyCacheEntry(entry, infoInOut);
     }
@@ -570,11 +747,17 @@ public class IconCache {
         ((entry.icon == null) ? getDefaultIcon(info.user) : entry).applyTo(info);
     }
 
-    public synchronized BitmapInfo getDefaultIcon(UserHandle user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public BitmapInfo getDefaultIcon(UserHandle user) {
+        BitmapInfo info = mDefaultIcons.get(user);
+        if (info == null) {
+            // Creating the same default icon twice is harmless, keep the first one.
+            info = makeDefaultIcon(user);
+            BitmapInfo existing = mDefaultIcons.putIfAbsent(user, info);
+            if (existing != null) {
+                info = existing;
+            }
         }
-        return mDefaultIcons.get(user);
+        return info;
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandle user) {
@@ -582,20 +765,15 @@ public class IconCache {
     }
 
     /**
-     * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * Retrieves the entry from the cache. If the entry is not present, it loads a new entry from
+     * the DB or the package manager. Concurrent misses for the same key share a single load.
      */
-    protected CacheEntry cacheLocked(
+    protected CacheEntry getOrLoadEntry(
             @NonNull ComponentName componentName,
             @NonNull Provider<LauncherActivityInfo> infoProvider,
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
-        Preconditions.assertWorkerThread();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
-        CacheEntry entry = mCache.get(cacheKey);
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
-            entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
-
+        return getOrLoadEntry(cacheKey, useLowResIcon, (entry) -> {
             // Check the DB first.
             LauncherActivityInfo info = null;
             boolean providerFetchedOnce = false;
@@ -606,7 +784,7 @@ public class IconCache {
 
                 if (info != null) {
                     LauncherIcons li = LauncherIcons.obtain(mContext);
-                    Drawable iconDrawable = mIconsHandler.getIconFromHandler(mContext, info);
+                    Drawable iconDrawable = getIconFromHandler(info);
                     if (iconDrawable == null) {
                         iconDrawable = getFullResIcon(info);
                     }
@@ -619,7 +797,7 @@ public class IconCache {
                     li.recycle();
                 } else {
                     if (usePackageIcon) {
-                        CacheEntry packageEntry = getEntryForPackageLocked(
+                        CacheEntry packageEntry = getEntryForPackage(
                                 componentName.getPackageName(), user, false);
                         if (packageEntry != null) {
                             if (DEBUG) Log.d(TAG, "using package default icon for " +
@@ -647,40 +825,337 @@ public class IconCache {
                     entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
                 }
             }
+            return true;
+        });
+    }
+
+    /**
+     * Returns the cached entry for {@param cacheKey} if it is usable, or loads a new one using
+     * {@param loader}. No lock is held while loading, other threads asking for the same key wait
+     * for this load instead of starting their own.
+     */
+    private CacheEntry getOrLoadEntry(ComponentKey cacheKey, boolean useLowResIcon,
+            EntryLoader loader) {
+        CacheEntry entry = mCache.get(cacheKey);
+        if (isUsable(entry, useLowResIcon)) {
+            mHitCount.incrementAndGet();
+            entry.lastAccessTime = SystemClock.uptimeMillis();
+            return entry;
+        }
+        Preconditions.assertNonUiThread();
+
+        while (true) {
+            PendingLoad pending = new PendingLoad();
+            PendingLoad existing = mPendingLoads.putIfAbsent(cacheKey, pending);
+            if (existing != null) {
+                // Another thread is loading this entry, wait for it. The result may not be
+                // usable if it was loaded for a different resolution, in which case try again.
+                mSharedMissCount.incrementAndGet();
+                long start = System.nanoTime();
+                entry = existing.await();
+                long waitNanos = System.nanoTime() - start;
+                mSharedMissWaitNanos.addAndGet(waitNanos);
+                mSharedMissTimes.record(TimeUnit.NANOSECONDS.toMicros(waitNanos));
+                if (isUsable(entry, useLowResIcon)) {
+                    return entry;
+                }
+                continue;
+            }
+
+            try {
+                // The entry might have been added before the pending load was registered.
+                entry = mCache.get(cacheKey);
+                if (isUsable(entry, useLowResIcon)) {
+                    mHitCount.incrementAndGet();
+                    return entry;
+                }
+                mMissCount.incrementAndGet();
+
+                int generation = mGeneration.get();
+                long start = TimingRecorder.now();
+                entry = new CacheEntry();
+                if (loader.load(entry)) {
+                    publishEntry(cacheKey, entry, generation);
+                }
+                (useLowResIcon ? mLowResMissTimes : mMissTimes).recordSince(start);
+                return entry;
+            } finally {
+                finishPendingLoad(cacheKey, pending, entry);
+            }
         }
-        return entry;
     }
 
-    public synchronized void clear() {
-        Preconditions.assertWorkerThread();
-        mIconDb.clear();
+    /**
+     * Adds an entry loaded without holding any lock to the cache, unless the cache was changed
+     * by a removal since {@param generation}, as the entry may be stale in that case.
+     */
+    private void publishEntry(ComponentKey cacheKey, CacheEntry entry, int generation) {
+        putEntry(cacheKey, entry);
+        if (generation != mGeneration.get() && removeEntry(cacheKey, entry)) {
+            mDiscardedLoadCount.incrementAndGet();
+        }
     }
 
     /**
-     * Adds a default package entry in the cache. This entry is not persisted and will be removed
-     * when the cache is flushed.
+     * Loads the entries for {@param keys} from the DB using a few bulk queries, and decodes
+     * their icons in parallel. This returns as soon as the DB has been read. Lookups for these
+     * keys made before their icon is decoded wait for it instead of reading the DB again. Keys
+     * which are already cached or which are not in the DB are left to the regular lookups.
      */
-    public synchronized void cachePackageInstallInfo(String packageName, UserHandle user,
-            Bitmap icon, CharSequence title) {
-        removeFromMemCacheLocked(packageName, user);
+    public void prefetch(Collection<ComponentKey> keys, boolean useLowResIcon) {
+        if (DEBUG_IGNORE_CACHE) {
+            return;
+        }
+        int generation = mGeneration.get();
+
+        // Claim the keys which need loading, so that concurrent lookups wait for the prefetch.
+        MultiHashMap<UserHandle, ComponentKey> keysByUser = new MultiHashMap<>();
+        HashMap<ComponentKey, PendingLoad> claimed = new HashMap<>();
+        for (ComponentKey key : keys) {
+            if (claimed.containsKey(key) || isUsable(mCache.get(key), useLowResIcon)) {
+                continue;
+            }
+            PendingLoad pending = new PendingLoad();
+            if (mPendingLoads.putIfAbsent(key, pending) == null) {
+                claimed.put(key, pending);
+                keysByUser.addToList(key.user, key);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
 
-        ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        try {
+            for (Map.Entry<UserHandle, ArrayList<ComponentKey>> e : keysByUser.entrySet()) {
+                ArrayList<ComponentKey> userKeys = e.getValue();
+                String userSerial = Long.toString(mUserManager.getSerialNumberForUser(e.getKey()));
+                for (int start = 0; start < userKeys.size(); start += PREFETCH_BATCH_SIZE) {
+                    prefetchBatch(userKeys.subList(start,
+                            Math.min(start + PREFETCH_BATCH_SIZE, userKeys.size())),
+                            userSerial, claimed, useLowResIcon, generation);
+                }
+            }
+        } finally {
+            // Release the keys which were not found, so that they are loaded normally.
+            for (Map.Entry<ComponentKey, PendingLoad> e : claimed.entrySet()) {
+                finishPendingLoad(e.getKey(), e.getValue(), null);
+            }
+        }
+    }
 
-        // For icon caching, do not go through DB. Just update the in-memory entry.
-        if (entry == null) {
-            entry = new CacheEntry();
+    /**
+     * Reads a batch of keys for a single user from the DB and schedules decoding their icons.
+     * The scheduled keys are removed from {@param claimed}.
+     */
+    private void prefetchBatch(List<ComponentKey> keys, String userSerial,
+            HashMap<ComponentKey, PendingLoad> claimed, boolean useLowResIcon, int generation) {
+        HashMap<String, ComponentKey> keysByComponent = new HashMap<>();
+        String[] selectionArgs = new String[keys.size() + 1];
+        StringBuilder selection = new StringBuilder(IconDB.COLUMN_USER)
+                .append(" = ? AND ").append(IconDB.COLUMN_COMPONENT).append(" IN (");
+        selectionArgs[0] = userSerial;
+        for (int i = 0; i < keys.size(); i++) {
+            ComponentKey key = keys.get(i);
+            String component = key.componentName.flattenToString();
+            keysByComponent.put(component, key);
+            selectionArgs[i + 1] = component;
+            selection.append(i == 0 ? "?" : ", ?");
         }
-        if (!TextUtils.isEmpty(title)) {
-            entry.title = title;
+        selection.append(')');
+
+        Cursor c = null;
+        try {
+            c = mIconDb.query(
+                    new String[]{IconDB.COLUMN_COMPONENT,
+                            useLowResIcon ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
+                            IconDB.COLUMN_ICON_COLOR, IconDB.COLUMN_LABEL},
+                    selection.toString(), selectionArgs);
+            while (c.moveToNext()) {
+                ComponentKey key = keysByComponent.get(c.getString(0));
+                byte[] data = c.getBlob(1);
+                // Entries without a label need the activity info, leave them to the lookups.
+                String label = c.getString(3);
+                if (key == null || data == null || TextUtils.isEmpty(label)) {
+                    continue;
+                }
+                PendingLoad pending = claimed.remove(key);
+                if (pending == null) {
+                    continue;
+                }
+                int color = c.getInt(2);
+                getLane(LANE_USER_VISIBLE).execute(() -> {
+                    CacheEntry entry = null;
+                    try {
+                        Bitmap icon = decodeIcon(data,
+                                useLowResIcon ? mLowResOptions : mHighResOptions);
+                        if (icon != null) {
+                            entry = new CacheEntry();
+                            entry.icon = icon;
+                            // Set the alpha to be 255, so that we never have a wrong color
+                            entry.color = ColorUtils.setAlphaComponent(color, 255);
+                            entry.isLowResIcon = useLowResIcon;
+                            entry.title = label;
+                            entry.contentDescription =
+                                    mUserManager.getBadgedLabelForUser(label, key.user);
+                            publishEntry(key, entry, generation);
+                            mPrefetchCount.incrementAndGet();
+                        }
+                    } finally {
+                        finishPendingLoad(key, pending, entry);
+                    }
+                });
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon cache", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
         }
-        if (icon != null) {
-            LauncherIcons li = LauncherIcons.obtain(mContext);
-            li.createIconBitmap(icon).applyTo(entry);
-            li.recycle();
+    }
+
+    private void finishPendingLoad(ComponentKey key, PendingLoad pending, CacheEntry entry) {
+        mPendingLoads.remove(key, pending);
+        pending.finish(entry);
+    }
+
+    private static boolean isUsable(CacheEntry entry, boolean useLowResIcon) {
+        return entry != null && (useLowResIcon || !entry.isLowResIcon);
+    }
+
+    private static int getByteCount(CacheEntry entry) {
+        return entry == null || entry.icon == null ? 0 : entry.icon.getAllocationByteCount();
+    }
+
+    private void putEntry(ComponentKey key, CacheEntry entry) {
+        entry.lastAccessTime = SystemClock.uptimeMillis();
+        CacheEntry old = mCache.put(key, entry);
+        long cacheBytes = mCacheBytes.addAndGet(getByteCount(entry) - getByteCount(old));
+        if (cacheBytes > mMaxCacheBytes && mTrimScheduled.compareAndSet(false, true)) {
+            mWorkerHandler.post(() -> {
+                mTrimScheduled.set(false);
+                trimToSize(mMaxCacheBytes * TRIM_TARGET_PERCENT / 100);
+            });
+        }
+    }
+
+    private boolean removeEntry(ComponentKey key, CacheEntry entry) {
+        if (mCache.remove(key, entry)) {
+            mCacheBytes.addAndGet(-getByteCount(entry));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases the memory cache based on {@param level}, as reported by
+     * {@link ComponentCallbacks2#onTrimMemory}. Hiding the UI alone does not release anything, so
+     * that the icons are still around when launcher is shown again.
+     */
+    public void onTrimMemory(int level) {
+        final long maxBytes;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            maxBytes = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            maxBytes = mMaxCacheBytes / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            maxBytes = mMaxCacheBytes / 2;
+        } else {
+            return;
+        }
+        mWorkerHandler.post(() -> trimToSize(maxBytes));
+    }
+
+    /**
+     * Shrinks the memory cache to at most {@param maxBytes}. The least recently used high-res
+     * entries are first replaced with their low-res icon from the DB, and the least recently used
+     * entries are evicted if that was not enough.
+     */
+    private void trimToSize(long maxBytes) {
+        Preconditions.assertWorkerThread();
+        if (mCacheBytes.get() <= maxBytes) {
+            return;
+        }
+
+        // Capture the access times, as they keep changing while sorting.
+        ArrayList<TrimCandidate> candidates = new ArrayList<>(mCache.size());
+        for (Map.Entry<ComponentKey, CacheEntry> e : mCache.entrySet()) {
+            candidates.add(new TrimCandidate(e.getKey(), e.getValue()));
+        }
+        Collections.sort(candidates, (c1, c2) -> Long.compare(c1.accessTime, c2.accessTime));
+
+        if (maxBytes > 0) {
+            for (TrimCandidate candidate : candidates) {
+                if (mCacheBytes.get() <= maxBytes) {
+                    return;
+                }
+                CacheEntry entry = candidate.entry;
+                if (entry.isLowResIcon || entry.icon == null) {
+                    continue;
+                }
+                CacheEntry lowResEntry = new CacheEntry();
+                if (getEntryFromDB(candidate.key, lowResEntry, true /* lowRes */)
+                        && lowResEntry.icon != null) {
+                    lowResEntry.title = entry.title;
+                    lowResEntry.contentDescription = entry.contentDescription;
+                    lowResEntry.lastAccessTime = entry.lastAccessTime;
+                    if (mCache.replace(candidate.key, entry, lowResEntry)) {
+                        mCacheBytes.addAndGet(getByteCount(lowResEntry) - getByteCount(entry));
+                        candidate.entry = lowResEntry;
+                        mDemotionCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        for (TrimCandidate candidate : candidates) {
+            if (mCacheBytes.get() <= maxBytes) {
+                return;
+            }
+            if (removeEntry(candidate.key, candidate.entry)) {
+                mEvictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        Preconditions.assertWorkerThread();
+        lockForUpdate();
+        try {
+            mIconDb.clear();
+        } finally {
+            mUpdateLock.unlock();
         }
-        if (!TextUtils.isEmpty(title) && entry.icon != null) {
-            mCache.put(cacheKey, entry);
+    }
+
+    /**
+     * Adds a default package entry in the cache. This entry is not persisted and will be removed
+     * when the cache is flushed.
+     */
+    public void cachePackageInstallInfo(String packageName, UserHandle user,
+            Bitmap icon, CharSequence title) {
+        lockForUpdate();
+        try {
+            removeFromMemCache(packageName, user);
+
+            ComponentKey cacheKey = getPackageKey(packageName, user);
+            // For icon caching, do not go through DB. Just update the in-memory entry.
+            CacheEntry entry = new CacheEntry();
+            if (!TextUtils.isEmpty(title)) {
+                entry.title = title;
+            }
+            if (icon != null) {
+                LauncherIcons li = LauncherIcons.obtain(mContext);
+                li.createIconBitmap(icon).applyTo(entry);
+                li.recycle();
+            }
+            if (!TextUtils.isEmpty(title) && entry.icon != null) {
+                putEntry(cacheKey, entry);
+            }
+        } finally {
+            mUpdateLock.unlock();
         }
     }
 
@@ -691,72 +1166,61 @@ public class IconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
      */
-    private CacheEntry getEntryForPackageLocked(String packageName, UserHandle user,
+    private CacheEntry getEntryForPackage(String packageName, UserHandle user,
             boolean useLowResIcon) {
-        Preconditions.assertWorkerThread();
         ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
-
-        if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
-            entry = new CacheEntry();
-            boolean entryUpdated = true;
-
+        return getOrLoadEntry(cacheKey, useLowResIcon, (entry) -> {
             // Check the DB first.
-            if (!getEntryFromDB(cacheKey, entry, useLowResIcon)) {
-                try {
-                    int flags = Process.myUserHandle().equals(user) ? 0 :
-                        PackageManager.GET_UNINSTALLED_PACKAGES;
-                    PackageInfo info = mPackageManager.getPackageInfo(packageName, flags);
-                    ApplicationInfo appInfo = info.applicationInfo;
-                    if (appInfo == null) {
-                        throw new NameNotFoundException("ApplicationInfo is null");
-                    }
-
-                    LauncherIcons li = LauncherIcons.obtain(mContext);
-                    // Load the full res icon for the application, but if useLowResIcon is set, then
-                    // only keep the low resolution icon instead of the larger full-sized icon
-                    Drawable iconDrawable = mIconsHandler.getIconFromHandler(mContext, appInfo, packageName);
-                    if (iconDrawable == null) {
-                        iconDrawable = appInfo.loadIcon(mPackageManager);
-                    }
-                    BitmapInfo iconInfo = null;
-                    if (isDefaultIconPack()) {
-                        iconInfo = li.createBadgedIconBitmap(
-                                iconDrawable, user, appInfo.targetSdkVersion,
-                                mInstantAppResolver.isInstantApp(appInfo));
-                    } else {
-                        iconInfo = li.createIconPackBitmapInfo(iconDrawable);
-                    }
-                    li.recycle();
-
-                    Bitmap lowResIcon =  generateLowResIcon(iconInfo.icon);
-                    entry.title = appInfo.loadLabel(mPackageManager);
-                    entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
-                    entry.icon = useLowResIcon ? lowResIcon : iconInfo.icon;
-                    entry.color = iconInfo.color;
-                    entry.isLowResIcon = useLowResIcon;
-
-                    // Add the icon in the DB here, since these do not get written during
-                    // package updates.
-                    ContentValues values = newContentValues(iconInfo.icon, lowResIcon, entry.color,
-                            entry.title.toString(), packageName);
-                    addIconToDB(values, cacheKey.componentName, info,
-                            mUserManager.getSerialNumberForUser(user));
-
-                } catch (NameNotFoundException e) {
-                    if (DEBUG) Log.d(TAG, "Application not installed " + packageName);
-                    entryUpdated = false;
-                }
+            if (getEntryFromDB(cacheKey, entry, useLowResIcon)) {
+                return true;
             }
+            try {
+                int flags = Process.myUserHandle().equals(user) ? 0 :
+                    PackageManager.GET_UNINSTALLED_PACKAGES;
+                PackageInfo info = mPackageManager.getPackageInfo(packageName, flags);
+                ApplicationInfo appInfo = info.applicationInfo;
+                if (appInfo == null) {
+                    throw new NameNotFoundException("ApplicationInfo is null");
+                }
 
-            // Only add a filled-out entry to the cache
-            if (entryUpdated) {
-                mCache.put(cacheKey, entry);
+                LauncherIcons li = LauncherIcons.obtain(mContext);
+                // Load the full res icon for the application, but if useLowResIcon is set, then
+                // only keep the low resolution icon instead of the larger full-sized icon
+                Drawable iconDrawable = getIconFromHandler(appInfo, packageName);
+                if (iconDrawable == null) {
+                    iconDrawable = appInfo.loadIcon(mPackageManager);
+                }
+                BitmapInfo iconInfo = null;
+                if (isDefaultIconPack()) {
+                    iconInfo = li.createBadgedIconBitmap(
+                            iconDrawable, user, appInfo.targetSdkVersion,
+                            mInstantAppResolver.isInstantApp(appInfo));
+                } else {
+                    iconInfo = li.createIconPackBitmapInfo(iconDrawable);
+                }
+                li.recycle();
+
+                Bitmap lowResIcon =  generateLowResIcon(iconInfo.icon);
+                entry.title = appInfo.loadLabel(mPackageManager);
+                entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+                entry.icon = useLowResIcon ? lowResIcon : iconInfo.icon;
+                entry.color = iconInfo.color;
+                entry.isLowResIcon = useLowResIcon;
+
+                // Add the icon in the DB here, since these do not get written during
+                // package updates.
+                ContentValues values = newContentValues(iconInfo.icon, lowResIcon, entry.color,
+                        entry.title.toString(), packageName);
+                addIconToDB(values, cacheKey.componentName, info,
+                        mUserManager.getSerialNumberForUser(user));
+                return true;
+            } catch (NameNotFoundException e) {
+                if (DEBUG) Log.d(TAG, "Application not installed " + packageName);
+                // Only add a filled-out entry to the cache
+                return false;
             }
-        }
-        return entry;
+        });
     }
 
     private boolean getEntryFromDB(ComponentKey cacheKey, CacheEntry entry, boolean lowRes) {
@@ -793,6 +1257,57 @@ public class IconCache {
         return false;
     }
 
+    /**
+     * Fills a new cache entry during a cache miss.
+     */
+    private interface EntryLoader {
+        /**
+         * @return true if the entry should be added to the cache.
+         */
+        boolean load(CacheEntry entry);
+    }
+
+    private static class TrimCandidate {
+        final ComponentKey key;
+        final long accessTime;
+        CacheEntry entry;
+
+        TrimCandidate(ComponentKey key, CacheEntry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.accessTime = entry.lastAccessTime;
+        }
+    }
+
+    /**
+     * A load in progress which other threads missing the same key can wait on.
+     */
+    private static class PendingLoad {
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile CacheEntry mEntry;
+
+        void finish(CacheEntry entry) {
+            mEntry = entry;
+            mLatch.countDown();
+        }
+
+        CacheEntry await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mLatch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return mEntry;
+        }
+    }
+
     public static abstract class IconLoadRequest implements Runnable {
         private final Handler mHandler;
         private final Runnable mEndRunnable;
@@ -818,18 +1333,30 @@ public class IconCache {
     }
 
     /**
-     * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfo list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * Updates invalid icons and adds missing icons in the DB for the provided
+     * LauncherActivityInfo list. Icons are rendered and compressed in parallel on a small pool,
+     * and committed to the DB and the memory cache in batches on the worker thread. The commits
+     * are queued behind the other worker tasks, so that the update does not hold up the model.
      */
-    @Thunk class SerializedIconUpdateTask implements Runnable {
+    @Thunk class IconUpdateTask implements Runnable {
         private final long mUserSerial;
         private final HashMap<String, PackageInfo> mPkgInfoMap;
         private final Stack<LauncherActivityInfo> mAppsToAdd;
         private final Stack<LauncherActivityInfo> mAppsToUpdate;
         private final HashSet<String> mUpdatedPackages = new HashSet<>();
 
-        @Thunk SerializedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
+        private final ConcurrentLinkedQueue<RenderedIcon> mRendered =
+                new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mCommitScheduled = new AtomicBoolean();
+        private volatile boolean mCancelled;
+
+        // < only access in worker thread >
+        private int mInFlight;
+        private int mUpdatesRemaining;
+        private int mIconCount;
+        private long mStartTime;
+
+        @Thunk IconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
                 Stack<LauncherActivityInfo> appsToAdd,
                 Stack<LauncherActivityInfo> appsToUpdate) {
             mUserSerial = userSerial;
@@ -838,40 +1365,128 @@ public class IconCache {
             mAppsToUpdate = appsToUpdate;
         }
 
-        @Override
-        public void run() {
-            if (!mAppsToUpdate.isEmpty()) {
-                LauncherActivityInfo app = mAppsToUpdate.pop();
-                String pkg = app.getComponentName().getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-                addIconToDBAndMemCache(app, info, mUserSerial, true /*replace existing*/);
-                mUpdatedPackages.add(pkg);
-
-                if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
-                    // No more app to update. Notify model.
-                    LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
-                            mUpdatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
+        public void start() {
+            mStartTime = SystemClock.uptimeMillis();
+            mUpdatesRemaining = mAppsToUpdate.size();
+            scheduleRenders();
+        }
+
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        /**
+         * Keeps up to {@link #MAX_RENDERS_IN_FLIGHT} icons rendering, updates first.
+         */
+        private void scheduleRenders() {
+            while (mInFlight < MAX_RENDERS_IN_FLIGHT) {
+                RenderedIcon icon;
+                if (!mAppsToUpdate.isEmpty()) {
+                    icon = new RenderedIcon(mAppsToUpdate.pop(), true);
+                } else if (!mAppsToAdd.isEmpty()) {
+                    icon = new RenderedIcon(mAppsToAdd.pop(), false);
+                } else {
+                    break;
                 }
+                mInFlight++;
+                icon.generation = mGeneration.get();
+                mRenderExecutor.execute(() -> render(icon));
+            }
+        }
 
-                // Let it run one more time.
-                scheduleNext();
-            } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfo app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
-                // app should have package info, this is not guaranteed by the api
-                if (info != null) {
-                    addIconToDBAndMemCache(app, info, mUserSerial, false /*replace existing*/);
+        /**
+         * Renders a single icon on the render pool.
+         */
+        private void render(RenderedIcon icon) {
+            PackageInfo info = mPkgInfoMap.get(icon.app.getComponentName().getPackageName());
+            // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
+            // app should have package info, this is not guaranteed by the api
+            if (!mCancelled && info != null) {
+                long start = System.nanoTime();
+                try {
+                    ComponentKey key = new ComponentKey(
+                            icon.app.getComponentName(), icon.app.getUser());
+                    CacheEntry entry = renderEntry(key, icon.app, icon.isUpdate);
+                    icon.values = newContentValues(entry, icon.app, info, mUserSerial);
+                    icon.key = key;
+                    icon.entry = entry;
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Unable to render icon for " + icon.app.getComponentName(), e);
                 }
+                mRenderNanos.addAndGet(System.nanoTime() - start);
+            }
+            mRendered.add(icon);
+            if (mCommitScheduled.compareAndSet(false, true)) {
+                mWorkerHandler.postAtTime(this, ICON_UPDATE_TOKEN, SystemClock.uptimeMillis() + 1);
+            }
+        }
+
+        /**
+         * Commits the rendered icons on the worker thread.
+         */
+        @Override
+        public void run() {
+            mCommitScheduled.set(false);
+            if (mCancelled) {
+                return;
+            }
 
-                if (!mAppsToAdd.isEmpty()) {
-                    scheduleNext();
+            ArrayList<ContentValues> rows = new ArrayList<>();
+            boolean updatesCommitted = false;
+            RenderedIcon icon;
+            while ((icon = mRendered.poll()) != null) {
+                mInFlight--;
+                if (icon.isUpdate) {
+                    mUpdatesRemaining--;
+                    updatesCommitted = true;
+                }
+                if (icon.entry == null) {
+                    continue;
                 }
+                publishEntry(icon.key, icon.entry, icon.generation);
+                rows.add(icon.values);
+                if (icon.isUpdate) {
+                    mUpdatedPackages.add(icon.app.getComponentName().getPackageName());
+                }
+            }
+            if (!rows.isEmpty()) {
+                mIconDb.insertOrReplace(rows);
+                mIconCount += rows.size();
+                mRenderedIconCount.addAndGet(rows.size());
+                mCommitBatchCount.incrementAndGet();
+            }
+
+            if (updatesCommitted && mUpdatesRemaining == 0 && !mUpdatedPackages.isEmpty()) {
+                // No more app to update. Notify model.
+                LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
+                        mUpdatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
+            }
+
+            scheduleRenders();
+            if (mInFlight == 0) {
+                mActiveUpdateTasks.remove(this);
+                mLastUpdateIconCount = mIconCount;
+                mLastUpdateDuration = SystemClock.uptimeMillis() - mStartTime;
             }
         }
+    }
 
-        public void scheduleNext() {
-            mWorkerHandler.postAtTime(this, ICON_UPDATE_TOKEN, SystemClock.uptimeMillis() + 1);
+    /**
+     * An icon rendered by {@link IconUpdateTask}. The results are set on the render pool and
+     * read on the worker thread once the icon has been handed over.
+     */
+    private static class RenderedIcon {
+        final LauncherActivityInfo app;
+        final boolean isUpdate;
+        int generation;
+
+        ComponentKey key;
+        CacheEntry entry;
+        ContentValues values;
+
+        RenderedIcon(LauncherActivityInfo app, boolean isUpdate) {
+            this.app = app;
+            this.isUpdate = isUpdate;
         }
     }
 
@@ -890,10 +1505,14 @@ public class IconCache {
         private final static String COLUMN_LABEL = "label";
         private final static String COLUMN_SYSTEM_STATE = "system_state";
 
+        // Maximum size of the uncompressed icons, about 200 apps with their low-res icons on
+        // xxxhdpi.
+        private final static long MAX_RAW_BITMAP_BYTES = 32 * 1024 * 1024;
+
         public IconDB(Context context, int iconPixelSize) {
             super(context, LauncherFiles.APP_ICONS_DB,
                     (RELEASE_VERSION << 16) + iconPixelSize,
-                    TABLE_NAME);
+                    TABLE_NAME, MAX_RAW_BITMAP_BYTES);
         }
 
         @Override
@@ -916,8 +1535,8 @@ public class IconCache {
     private ContentValues newContentValues(Bitmap icon, Bitmap lowResIcon, int iconColor,
             String label, String packageName) {
         ContentValues values = new ContentValues();
-        values.put(IconDB.COLUMN_ICON, Utilities.flattenBitmap(icon));
-        values.put(IconDB.COLUMN_ICON_LOW_RES, Utilities.flattenBitmap(lowResIcon));
+        values.put(IconDB.COLUMN_ICON, mIconDb.flattenBitmap(icon));
+        values.put(IconDB.COLUMN_ICON_LOW_RES, mIconDb.flattenBitmap(lowResIcon));
         values.put(IconDB.COLUMN_ICON_COLOR, iconColor);
 
         values.put(IconDB.COLUMN_LABEL, label);
@@ -935,13 +1554,12 @@ public class IconCache {
                 icon.getHeight() / LOW_RES_SCALE_FACTOR, true);
     }
 
-    private static Bitmap loadIconNoResize(Cursor c, int iconIndex, BitmapFactory.Options options) {
-        byte[] data = c.getBlob(iconIndex);
-        try {
-            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
-        } catch (Exception e) {
-            return null;
-        }
+    private Bitmap loadIconNoResize(Cursor c, int iconIndex, BitmapFactory.Options options) {
+        return decodeIcon(c.getBlob(iconIndex), options);
+    }
+
+    private Bitmap decodeIcon(byte[] data, BitmapFactory.Options options) {
+        return mIconDb.decodeBitmap(data, options);
     }
 
     private class ActivityInfoProvider extends Provider<LauncherActivityInfo> {
@@ -971,4 +1589,25 @@ public class IconCache {
     public void clearIconCache() {
         removeAllIconsForUser(Process.myUserHandle());
     }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "IconCache: size=" + mCache.size()
+                + " pendingLoads=" + mPendingLoads.size());
+        writer.println(prefix + "  bytes=" + mCacheBytes.get() + " maxBytes=" + mMaxCacheBytes
+                + " demotions=" + mDemotionCount.get() + " evictions=" + mEvictionCount.get());
+        writer.println(prefix + "  hits=" + mHitCount.get() + " misses=" + mMissCount.get()
+                + " prefetched=" + mPrefetchCount.get()
+                + " discardedLoads=" + mDiscardedLoadCount.get());
+        writer.println(prefix + "  sharedMisses=" + mSharedMissCount.get() + " sharedMissWaitMs="
+                + TimeUnit.NANOSECONDS.toMillis(mSharedMissWaitNanos.get())
+                + " contendedUpdates=" + mUpdateLockContendedCount.get());
+        long rendered = mRenderedIconCount.get();
+        writer.println(prefix + "  dbUpdates: rendered=" + rendered
+                + " batches=" + mCommitBatchCount.get()
+                + " avgRenderMs=" + (rendered == 0 ? 0
+                        : TimeUnit.NANOSECONDS.toMillis(mRenderNanos.get()) / rendered)
+                + " lastRun=" + mLastUpdateIconCount + " icons in " + mLastUpdateDuration + "ms"
+                + " activeTasks=" + mActiveUpdateTasks.size());
+        mIconDb.dump(prefix + "  ", writer);
+    }
 }
@@ -18,6 +18,8 @@ package com.android.launcher3;
 
 import android.graphics.Bitmap;
 
+import com.android.launcher3.util.LabelKey;
+
 /**
  * Represents an ItemInfo which also holds an icon.
  */
@@ -101,6 +103,9 @@ public abstract class ItemInfoWithIcon extends ItemInfo {
      */
     public int runtimeStatusFlags = 0;
 
+    // Sort key of the title, computed again when the title changes.
+    private LabelKey mLabelKey;
+
     protected ItemInfoWithIcon() { }
 
     protected ItemInfoWithIcon(ItemInfoWithIcon info) {
@@ -109,6 +114,16 @@ public abstract class ItemInfoWithIcon extends ItemInfo {
         iconColor = info.iconColor;
         usingLowResIcon = info.usingLowResIcon;
         runtimeStatusFlags = info.runtimeStatusFlags;
+        mLabelKey = info.mLabelKey;
+    }
+
+    /**
+     * Returns the key to sort this item by its title.
+     */
+    public LabelKey getLabelKey() {
+        LabelKey key = LabelKey.get(mLabelKey, title);
+        mLabelKey = key;
+        return key;
     }
 
     @Override
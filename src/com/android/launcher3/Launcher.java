@@ -25,6 +25,8 @@ import static com.android.launcher3.LauncherState.NORMAL;
 import static com.android.launcher3.dragndrop.DragLayer.ALPHA_INDEX_LAUNCHER_LOAD;
 import static com.android.launcher3.logging.LoggerUtils.newContainerTarget;
 import static com.android.launcher3.logging.LoggerUtils.newTarget;
+import static com.android.launcher3.util.PriorityLaneExecutor.LANE_MAINTENANCE;
+import static com.android.launcher3.util.PriorityLaneExecutor.getLane;
 
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
@@ -91,6 +93,7 @@ import com.android.launcher3.dragndrop.DragLayer;
 import com.android.launcher3.dragndrop.DragView;
 import com.android.launcher3.folder.FolderIcon;
 import com.android.launcher3.folder.FolderIconPreviewVerifier;
+import com.android.launcher3.graphics.BitmapPool;
 import com.android.launcher3.keyboard.CustomActionsPopup;
 import com.android.launcher3.keyboard.ViewGroupFocusHelper;
 import com.android.launcher3.logging.FileLog;
@@ -103,6 +106,7 @@ import com.android.launcher3.popup.PopupContainerWithArrow;
 import com.android.launcher3.popup.PopupDataProvider;
 import com.android.launcher3.quickspace.QuickSpaceView;
 import com.android.launcher3.qsb.QsbAnimationController;
+import com.android.launcher3.search.SearchThread;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.states.InternalStateHandler;
 import com.android.launcher3.states.RotationHelper;
@@ -1728,7 +1732,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
                     appWidgetHost.deleteAppWidgetId(widgetInfo.appWidgetId);
                     return null;
                 }
-            }.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
+            }.executeOnExecutor(getLane(LANE_MAINTENANCE));
         }
         getModelWriter().deleteItemFromDatabase(widgetInfo);
     }
@@ -1860,10 +1864,10 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
             // The widget preview db can result in holding onto over
             // 3MB of memory for caching which isn't necessary.
             SQLiteDatabase.releaseMemory();
-
-            // This clears all widget bitmaps from the widget tray
-            // TODO(hyunyoungs)
         }
+        mIconCache.onTrimMemory(level);
+        LauncherAppState.getInstance(this).getWidgetCache().onTrimMemory(level);
+        BitmapPool.getInstance().onTrimMemory(level);
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onTrimMemory(level);
         }
@@ -1992,6 +1996,17 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         mWorkspace.removeExtraEmptyScreen(false, false);
     }
 
+    /**
+     * Replaces the items bound from the workspace snapshot with the loaded {@param items} of the
+     * first page and the hotseat.
+     *
+     * Implementation of the method from LauncherModel.Callbacks.
+     */
+    @Override
+    public void bindFirstPageOverSnapshot(ArrayList<ItemInfo> items) {
+        bindItems(mWorkspace.replaceSnapshotItems(items), false);
+    }
+
     /**
      * Bind the items start-end from the list.
      *
@@ -2466,6 +2481,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         writer.println(" mPendingActivityResult=" + mPendingActivityResult);
         writer.println(" mRotationHelper: " + mRotationHelper);
         dumpMisc(writer);
+        UiFactory.dump(this, prefix, writer);
 
         try {
             FileLog.flushAll(writer);
@@ -2474,6 +2490,8 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         }
 
         mModel.dumpState(prefix, fd, writer, args);
+        SearchThread.dump(prefix, writer);
+        NotificationListener.dump(prefix, writer);
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.dump(prefix, fd, writer, args);
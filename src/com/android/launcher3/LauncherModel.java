@@ -36,14 +36,17 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
+import com.android.launcher3.allapps.search.AppSearchIndex;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.PackageInstallerCompat.PackageInstallInfo;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.graphics.BitmapPool;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.model.AddWorkspaceItemsTask;
 import com.android.launcher3.model.BaseModelUpdateTask;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.CacheDataUpdatedTask;
+import com.android.launcher3.model.HiddenAppsChangedTask;
 import com.android.launcher3.model.LoaderResults;
 import com.android.launcher3.model.LoaderTask;
 import com.android.launcher3.model.ModelWriter;
@@ -59,8 +62,10 @@ import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
+import com.android.launcher3.util.PriorityLaneExecutor;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.Thunk;
+import com.android.launcher3.util.TimingRecorder;
 import com.android.launcher3.util.ViewOnDrawExecutor;
 import com.android.launcher3.widget.WidgetListRowEntry;
 
@@ -68,9 +73,11 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 
@@ -144,6 +151,7 @@ public class LauncherModel extends BroadcastReceiver
         public void startBinding();
         public void bindItems(List<ItemInfo> shortcuts, boolean forceAnimateIcons);
         public void bindScreens(ArrayList<Long> orderedScreenIds);
+        public void bindFirstPageOverSnapshot(ArrayList<ItemInfo> items);
         public void finishFirstPageBind(ViewOnDrawExecutor executor);
         public void finishBindingItems();
         public void bindAllApplications(ArrayList<AppInfo> apps);
@@ -167,6 +175,10 @@ public class LauncherModel extends BroadcastReceiver
         mApp = app;
         mBgAllAppsList = new AllAppsList(app.getContext(), iconCache, appFilter);
         mIconCache = iconCache;
+        if (appFilter instanceof StringSetAppFilter) {
+            ((StringSetAppFilter) appFilter).setOnHiddenAppsChangedListener(
+                    this::onHiddenAppsChanged);
+        }
     }
 
     /** Runs the specified runnable immediately if called from the worker thread, otherwise it is
@@ -365,6 +377,13 @@ public class LauncherModel extends BroadcastReceiver
                 PackageUpdatedTask.OP_UNSUSPEND, user, packageNames));
     }
 
+    /**
+     * Updates all apps when the user hides or unhides apps.
+     */
+    public void onHiddenAppsChanged(Set<String> hiddenPackages, Set<String> unhiddenPackages) {
+        enqueueModelUpdateTask(new HiddenAppsChangedTask(hiddenPackages, unhiddenPackages));
+    }
+
     @Override
     public void onShortcutsChanged(String packageName, List<ShortcutInfoCompat> shortcuts,
             UserHandle user) {
@@ -670,6 +689,23 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
         sBgDataModel.dump(prefix, fd, writer, args);
+        if (Arrays.asList(args).contains("--proto")) {
+            // The proto dump is binary, any text would corrupt it.
+            return;
+        }
+        mIconCache.dump(prefix, writer);
+        mApp.getWidgetCache().dump(prefix, writer);
+        BitmapPool.getInstance().dump(prefix, writer);
+        PriorityLaneExecutor.getInstance().dump(prefix, writer);
+        TimingRecorder.getInstance().dump(prefix, writer);
+    }
+
+    /**
+     * @return the index of app titles used for searching all apps. The index can be queried from
+     * any thread.
+     */
+    public AppSearchIndex getAppSearchIndex() {
+        return mBgAllAppsList.searchIndex;
     }
 
     public Callbacks getCallback() {
@@ -61,12 +61,14 @@ import com.android.launcher3.provider.RestoreDbTask;
 import com.android.launcher3.util.NoLocaleSQLiteHelper;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Thunk;
+import com.android.launcher3.util.TimingRecorder;
 
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -100,6 +102,10 @@ public class LauncherProvider extends ContentProvider {
     public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
         LauncherAppState appState = LauncherAppState.getInstanceNoCreate();
         if (appState == null || !appState.getModel().isModelLoaded()) {
+            // The timings are still useful to see where a slow or stuck load spends its time.
+            if (!Arrays.asList(args).contains("--proto")) {
+                TimingRecorder.getInstance().dump("", writer);
+            }
             return;
         }
         appState.getModel().dumpState("", fd, writer, args);
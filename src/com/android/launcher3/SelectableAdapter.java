@@ -55,7 +55,9 @@ abstract class SelectableAdapter<VH extends RecyclerView.ViewHolder> extends Rec
     void addSelectionsToHideList(Context context) {
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        prefs.edit().putStringSet(Utilities.KEY_HIDDEN_APPS_SET, mSelections).apply();
+        // Store a copy, as the preferences would otherwise share the set being modified and
+        // not notify listeners of the change.
+        prefs.edit().putStringSet(Utilities.KEY_HIDDEN_APPS_SET, new HashSet<>(mSelections)).apply();
     }
 
     void removeSelectionsToHideList(Context context) {
@@ -16,6 +16,9 @@
 
 package com.android.launcher3;
 
+import static com.android.launcher3.util.PriorityLaneExecutor.LANE_MAINTENANCE;
+import static com.android.launcher3.util.PriorityLaneExecutor.getLane;
+
 import android.annotation.TargetApi;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -103,7 +106,7 @@ public class SessionCommitReceiver extends BroadcastReceiver {
             // grid.
             prefs.edit().putBoolean(ADD_ICON_PREFERENCE_KEY, true).apply();
         } else if (!prefs.contains(ADD_ICON_PREFERENCE_INITIALIZED_KEY)) {
-            new PrefInitTask(context).executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
+            new PrefInitTask(context).executeOnExecutor(getLane(LANE_MAINTENANCE));
         }
     }
 
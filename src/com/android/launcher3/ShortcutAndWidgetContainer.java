@@ -89,6 +89,29 @@ public class ShortcutAndWidgetContainer extends ViewGroup {
         }
     }
 
+    @Override
+    public void onViewAdded(View child) {
+        super.onViewAdded(child);
+        BoundViewIndex index = getBoundViewIndex();
+        if (index != null) {
+            index.onViewAdded(child, mContainerType == CellLayout.FOLDER);
+        }
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+        BoundViewIndex index = getBoundViewIndex();
+        if (index != null) {
+            index.onViewRemoved(child);
+        }
+    }
+
+    private BoundViewIndex getBoundViewIndex() {
+        Workspace workspace = mLauncher.getWorkspace();
+        return workspace == null ? null : workspace.getBoundViewIndex();
+    }
+
     public void setupLp(View child) {
         CellLayout.LayoutParams lp = (CellLayout.LayoutParams) child.getLayoutParams();
         if (child instanceof LauncherAppWidgetHostView) {
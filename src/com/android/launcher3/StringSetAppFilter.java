@@ -1,15 +1,23 @@
 package com.android.launcher3;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.preference.PreferenceManager;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
-public class StringSetAppFilter implements AppFilter {
+public class StringSetAppFilter implements AppFilter, OnSharedPreferenceChangeListener {
     private final HashSet<String> mBlackList = new HashSet<>();
     private final HashSet<String> mWidgetBlackList = new HashSet<>();
 
+    // Immutable copy of the hidden apps preference, swapped whenever the preference changes.
+    private volatile Set<String> mHiddenApps;
+
+    private OnHiddenAppsChangedListener mListener;
+
     public StringSetAppFilter(Context context) {
         mBlackList.add("com.google.android.googlequicksearchbox");
         mBlackList.add("com.google.android.apps.wallpaper");
@@ -17,15 +25,57 @@ public class StringSetAppFilter implements AppFilter {
         mBlackList.add("com.google.android.as");
         mWidgetBlackList.add("com.google.android.apps.wallpaper");
         mWidgetBlackList.add("com.google.android.launcher");
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mHiddenApps = readHiddenApps(prefs);
+        // The preferences only keep a weak reference to the listener, which is fine as the
+        // snapshot is not needed once this filter is gone.
+        prefs.registerOnSharedPreferenceChangeListener(this);
     }
 
     @Override
     public boolean shouldShowApp(String packageName, Context context, boolean isWidgetPanel) {
-        Set<String> hiddenApps = PreferenceManager.getDefaultSharedPreferences(context).getStringSet(Utilities.KEY_HIDDEN_APPS_SET, null);
-
         if (isWidgetPanel) {
             return !mWidgetBlackList.contains(packageName);
         }
-        return !mBlackList.contains(packageName) && (hiddenApps == null || !hiddenApps.contains(packageName));
+        return !mBlackList.contains(packageName) && !mHiddenApps.contains(packageName);
+    }
+
+    /**
+     * Sets a listener to be notified on the main thread when apps get hidden or unhidden.
+     */
+    public void setOnHiddenAppsChangedListener(OnHiddenAppsChangedListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (!Utilities.KEY_HIDDEN_APPS_SET.equals(key)) {
+            return;
+        }
+        Set<String> oldHiddenApps = mHiddenApps;
+        Set<String> newHiddenApps = readHiddenApps(prefs);
+        mHiddenApps = newHiddenApps;
+
+        if (mListener != null) {
+            HashSet<String> hidden = new HashSet<>(newHiddenApps);
+            hidden.removeAll(oldHiddenApps);
+            HashSet<String> unhidden = new HashSet<>(oldHiddenApps);
+            unhidden.removeAll(newHiddenApps);
+            if (!hidden.isEmpty() || !unhidden.isEmpty()) {
+                mListener.onHiddenAppsChanged(hidden, unhidden);
+            }
+        }
+    }
+
+    private static Set<String> readHiddenApps(SharedPreferences prefs) {
+        Set<String> hiddenApps = prefs.getStringSet(Utilities.KEY_HIDDEN_APPS_SET, null);
+        return hiddenApps == null || hiddenApps.isEmpty()
+                ? Collections.emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(hiddenApps));
+    }
+
+    public interface OnHiddenAppsChangedListener {
+        void onHiddenAppsChanged(Set<String> hiddenPackages, Set<String> unhiddenPackages);
     }
 }
@@ -1,5 +1,11 @@
 package com.android.launcher3;
 
+import static com.android.launcher3.util.PriorityLaneExecutor.LANE_PREFETCH;
+import static com.android.launcher3.util.PriorityLaneExecutor.LANE_USER_VISIBLE;
+import static com.android.launcher3.util.PriorityLaneExecutor.getLane;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -28,26 +34,28 @@ import android.os.UserHandle;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.LruCache;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.graphics.BitmapPool;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.graphics.ShadowGenerator;
 import com.android.launcher3.model.WidgetItem;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
+import com.android.launcher3.util.PriorityLaneExecutor;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.WidgetCell;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
@@ -56,16 +64,14 @@ public class WidgetPreviewLoader {
     private static final String TAG = "WidgetPreviewLoader";
     private static final boolean DEBUG = false;
 
-    private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
+    // Fraction of the app memory class which the in-memory previews can use.
+    private static final int MEMORY_BUDGET_DIVISOR = 16;
+    private static final int LOW_RAM_MEMORY_BUDGET_DIVISOR = 32;
 
-    /**
-     * Weak reference objects, do not prevent their referents from being made finalizable,
-     * finalized, and then reclaimed.
-     * Note: synchronized block used for this variable is expensive and the block should always
-     * be posted to a background thread.
-     */
-    @Thunk final Set<Bitmap> mUnusedBitmaps =
-            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    // Prefetches which could not start by then are for rows which were most likely scrolled by.
+    private static final long PREFETCH_TIMEOUT_MS = 1000;
+
+    private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
     private final Context mContext;
     private final IconCache mIconCache;
@@ -76,6 +82,19 @@ public class WidgetPreviewLoader {
     private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
     @Thunk final Handler mWorkerHandler;
 
+    /**
+     * The recently loaded previews, so that binding a cell again does not read the DB again.
+     * Bitmaps in this cache are shared between cells and are never released to the
+     * {@link BitmapPool}.
+     */
+    @Thunk final LruCache<WidgetCacheKey, Bitmap> mPreviewCache;
+
+    /**
+     * The loads in progress, so that all the requests for the same preview share one load.
+     * Only accessed on the UI thread.
+     */
+    @Thunk final HashMap<WidgetCacheKey, PreviewLoadTask> mPendingLoads = new HashMap<>();
+
     public WidgetPreviewLoader(Context context, IconCache iconCache) {
         mContext = context;
         mIconCache = iconCache;
@@ -83,27 +102,92 @@ public class WidgetPreviewLoader {
         mUserManager = UserManagerCompat.getInstance(context);
         mDb = new CacheDb(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+
+        ActivityManager am = context.getSystemService(ActivityManager.class);
+        int maxCacheBytes = am.getMemoryClass() * 1024 * 1024 / (am.isLowRamDevice()
+                ? LOW_RAM_MEMORY_BUDGET_DIVISOR : MEMORY_BUDGET_DIVISOR);
+        mPreviewCache = new LruCache<WidgetCacheKey, Bitmap>(maxCacheBytes) {
+            @Override
+            protected int sizeOf(WidgetCacheKey key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread
+     * Applies the widget preview to {@param caller} right away if it is in memory, otherwise
+     * loads it in the user visible lane of {@link PriorityLaneExecutor}. Must be called on UI
+     * thread
      *
      * @return a request id which can be used to cancel the request.
      */
     public CancellationSignal getPreview(WidgetItem item, int previewWidth,
             int previewHeight, WidgetCell caller) {
-        String size = previewWidth + "x" + previewHeight;
-        WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
+        WidgetCacheKey key = getCacheKey(item, previewWidth, previewHeight);
+        CancellationSignal signal = new CancellationSignal();
 
-        PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
-        task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
+        Bitmap preview = mPreviewCache.get(key);
+        if (preview != null) {
+            caller.applyPreview(preview);
+            return signal;
+        }
 
-        CancellationSignal signal = new CancellationSignal();
-        signal.setOnCancelListener(task);
+        PreviewLoadTask task = mPendingLoads.get(key);
+        if (task != null && task.mIsPrefetch && !task.mStarted) {
+            // Do not wait behind the other prefetches now that the preview is on screen.
+            task.cancel(false);
+            task = null;
+        }
+        if (task == null) {
+            task = new PreviewLoadTask(key, item, previewWidth, previewHeight,
+                    BaseActivity.fromContext(caller.getContext()), false /* isPrefetch */);
+            mPendingLoads.put(key, task);
+            task.executeOnExecutor(getLane(LANE_USER_VISIBLE));
+        }
+        task.addCaller(caller, signal);
         return signal;
     }
 
+    /**
+     * Loads the previews of {@param items} into memory, unless they are already loaded or being
+     * loaded. Unlike {@link #getPreview}, these loads are not cancelled once started, but are
+     * dropped if they could not start soon enough to still be useful. Must be called on UI
+     * thread
+     */
+    public void prefetchPreviews(List<WidgetItem> items, int previewWidth, int previewHeight,
+            BaseActivity activity) {
+        for (WidgetItem item : items) {
+            WidgetCacheKey key = getCacheKey(item, previewWidth, previewHeight);
+            if (mPendingLoads.containsKey(key) || mPreviewCache.get(key) != null) {
+                continue;
+            }
+            PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight,
+                    activity, true /* isPrefetch */);
+            mPendingLoads.put(key, task);
+            task.executeOnExecutor(runnable -> PriorityLaneExecutor.getInstance().execute(
+                    LANE_PREFETCH, runnable, PREFETCH_TIMEOUT_MS));
+        }
+    }
+
+    private static WidgetCacheKey getCacheKey(WidgetItem item, int previewWidth,
+            int previewHeight) {
+        String size = previewWidth + "x" + previewHeight;
+        return new WidgetCacheKey(item.componentName, item.user, size);
+    }
+
+    /**
+     * Releases the in-memory previews based on {@param level}, as reported by
+     * {@link ComponentCallbacks2#onTrimMemory}. They are only useful while the widget tray is
+     * visible, so they are all released once the UI is hidden.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mPreviewCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mPreviewCache.trimToSize(mPreviewCache.maxSize() / 2);
+        }
+    }
+
     /**
      * The DB holds the generated previews for various components. Previews can also have different
      * sizes (landscape vs portrait).
@@ -120,8 +204,12 @@ public class WidgetPreviewLoader {
         private static final String COLUMN_VERSION = "version";
         private static final String COLUMN_PREVIEW_BITMAP = "preview_bitmap";
 
+        // Maximum size of the uncompressed previews, about a hundred previews on xxxhdpi.
+        private static final long MAX_RAW_BITMAP_BYTES = 32 * 1024 * 1024;
+
         public CacheDb(Context context) {
-            super(context, LauncherFiles.WIDGET_PREVIEWS_DB, DB_VERSION, TABLE_NAME);
+            super(context, LauncherFiles.WIDGET_PREVIEWS_DB, DB_VERSION, TABLE_NAME,
+                    MAX_RAW_BITMAP_BYTES);
         }
 
         @Override
@@ -147,7 +235,7 @@ public class WidgetPreviewLoader {
         values.put(CacheDb.COLUMN_PACKAGE, key.componentName.getPackageName());
         values.put(CacheDb.COLUMN_VERSION, versions[0]);
         values.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
-        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, Utilities.flattenBitmap(preview));
+        values.put(CacheDb.COLUMN_PREVIEW_BITMAP, mDb.flattenBitmap(preview));
         mDb.insertOrReplace(values);
     }
 
@@ -160,6 +248,12 @@ public class WidgetPreviewLoader {
             mPackageVersions.remove(packageName);
         }
 
+        for (WidgetCacheKey key : mPreviewCache.snapshot().keySet()) {
+            if (key.componentName.getPackageName().equals(packageName) && key.user.equals(user)) {
+                mPreviewCache.remove(key);
+            }
+        }
+
         mDb.delete(
                 CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
                 new String[]{packageName, Long.toString(userSerial)});
@@ -268,12 +362,8 @@ public class WidgetPreviewLoader {
                 byte[] blob = cursor.getBlob(0);
                 BitmapFactory.Options opts = new BitmapFactory.Options();
                 opts.inBitmap = recycle;
-                try {
-                    if (!loadTask.isCancelled()) {
-                        return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
-                    }
-                } catch (Exception e) {
-                    return null;
+                if (!loadTask.isCancelled()) {
+                    return mDb.decodeBitmap(blob, opts);
                 }
             }
         } catch (SQLException e) {
@@ -523,56 +613,60 @@ public class WidgetPreviewLoader {
         }
     }
 
-    public class PreviewLoadTask extends AsyncTask<Void, Void, Bitmap>
-            implements CancellationSignal.OnCancelListener {
+    public class PreviewLoadTask extends AsyncTask<Void, Void, Bitmap> {
         @Thunk final WidgetCacheKey mKey;
         private final WidgetItem mInfo;
         private final int mPreviewHeight;
         private final int mPreviewWidth;
-        private final WidgetCell mCaller;
         private final BaseActivity mActivity;
+        @Thunk final boolean mIsPrefetch;
+        @Thunk volatile boolean mStarted;
+        private final ArrayList<WidgetCell> mCallers = new ArrayList<>();
         @Thunk long[] mVersions;
-        @Thunk Bitmap mBitmapToRecycle;
 
         PreviewLoadTask(WidgetCacheKey key, WidgetItem info, int previewWidth,
-                int previewHeight, WidgetCell caller) {
+                int previewHeight, BaseActivity activity, boolean isPrefetch) {
             mKey = key;
             mInfo = info;
             mPreviewHeight = previewHeight;
             mPreviewWidth = previewWidth;
-            mCaller = caller;
-            mActivity = BaseActivity.fromContext(mCaller.getContext());
+            mActivity = activity;
+            mIsPrefetch = isPrefetch;
             if (DEBUG) {
                 Log.d(TAG, String.format("%s, %s, %d, %d",
                         mKey, mInfo, mPreviewHeight, mPreviewWidth));
             }
         }
 
+        /**
+         * Applies the preview to {@param caller} once loaded, until {@param signal} is cancelled.
+         * The load is cancelled when all its callers are, unless it is a prefetch.
+         */
+        void addCaller(final WidgetCell caller, CancellationSignal signal) {
+            mCallers.add(caller);
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    mCallers.remove(caller);
+                    if (mCallers.isEmpty() && !mIsPrefetch) {
+                        cancel(true);
+                        if (mPendingLoads.get(mKey) == PreviewLoadTask.this) {
+                            mPendingLoads.remove(mKey);
+                        }
+                    }
+                }
+            });
+        }
+
         @Override
         protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
-
+            mStarted = true;
             // If already cancelled before this gets to run in the background, then return early
             if (isCancelled()) {
                 return null;
             }
-            synchronized (mUnusedBitmaps) {
-                // Check if we can re-use a bitmap
-                for (Bitmap candidate : mUnusedBitmaps) {
-                    if (candidate != null && candidate.isMutable() &&
-                            candidate.getWidth() == mPreviewWidth &&
-                            candidate.getHeight() == mPreviewHeight) {
-                        unusedBitmap = candidate;
-                        mUnusedBitmaps.remove(unusedBitmap);
-                        break;
-                    }
-                }
-            }
-
-            // creating a bitmap is expensive. Do not do this inside synchronized block.
-            if (unusedBitmap == null) {
-                unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
-            }
+            Bitmap unusedBitmap = BitmapPool.getInstance().obtain(
+                    mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
             // If cancelled now, don't bother reading the preview from the DB
             if (isCancelled()) {
                 return unusedBitmap;
@@ -596,72 +690,46 @@ public class WidgetPreviewLoader {
 
         @Override
         protected void onPostExecute(final Bitmap preview) {
-            mCaller.applyPreview(preview);
+            if (mPendingLoads.get(mKey) == this) {
+                mPendingLoads.remove(mKey);
+            }
+            // The preview is now shared through the memory cache, so it is never recycled.
+            if (preview != null) {
+                mPreviewCache.put(mKey, preview);
+            }
+            for (WidgetCell caller : mCallers) {
+                caller.applyPreview(preview);
+            }
+            mCallers.clear();
 
             // Write the generated preview to the DB in the worker thread
             if (mVersions != null) {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        if (!isCancelled()) {
-                            // If we are still using this preview, then write it to the DB and then
-                            // let the normal clear mechanism recycle the bitmap
-                            writeToDb(mKey, mVersions, preview);
-                            mBitmapToRecycle = preview;
-                        } else {
-                            // If we've already cancelled, then skip writing the bitmap to the DB
-                            // and manually add the bitmap back to the recycled set
-                            synchronized (mUnusedBitmaps) {
-                                mUnusedBitmaps.add(preview);
-                            }
-                        }
+                        writeToDb(mKey, mVersions, preview);
                     }
                 });
-            } else {
-                // If we don't need to write to disk, then ensure the preview gets recycled by
-                // the normal clear mechanism
-                mBitmapToRecycle = preview;
             }
         }
 
         @Override
         protected void onCancelled(final Bitmap preview) {
-            // If we've cancelled while the task is running, then can return the bitmap to the
-            // recycled set immediately. Otherwise, it will be recycled after the preview is written
-            // to disk.
-            if (preview != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(preview);
-                        }
-                    }
-                });
+            if (mPendingLoads.get(mKey) == this) {
+                // Prefetches are cancelled by the executor when they time out.
+                mPendingLoads.remove(mKey);
             }
+            // If we've cancelled while the task is running, then can return the bitmap to the
+            // pool immediately, as it was never shared.
+            BitmapPool.getInstance().release(preview);
         }
+    }
 
-        @Override
-        public void onCancel() {
-            cancel(true);
-
-            // This only handles the case where the PreviewLoadTask is cancelled after the task has
-            // successfully completed (including having written to disk when necessary).  In the
-            // other cases where it is cancelled while the task is running, it will be cleaned up
-            // in the tasks's onCancelled() call, and if cancelled while the task is writing to
-            // disk, it will be cancelled in the task's onPostExecute() call.
-            if (mBitmapToRecycle != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(mBitmapToRecycle);
-                        }
-                        mBitmapToRecycle = null;
-                    }
-                });
-            }
-        }
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "WidgetPreviewLoader: bytes=" + mPreviewCache.size()
+                + " maxBytes=" + mPreviewCache.maxSize()
+                + " hits=" + mPreviewCache.hitCount() + " misses=" + mPreviewCache.missCount());
+        mDb.dump(prefix + "  ", writer);
     }
 
     private static final class WidgetCacheKey extends ComponentKey {
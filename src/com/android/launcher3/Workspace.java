@@ -23,6 +23,8 @@ import static com.android.launcher3.LauncherState.ALL_APPS;
 import static com.android.launcher3.LauncherState.NORMAL;
 import static com.android.launcher3.LauncherState.SPRING_LOADED;
 import static com.android.launcher3.dragndrop.DragLayer.ALPHA_INDEX_OVERLAY;
+import static com.android.launcher3.util.PriorityLaneExecutor.LANE_MAINTENANCE;
+import static com.android.launcher3.util.PriorityLaneExecutor.getLane;
 
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
@@ -177,6 +179,7 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
 
     @Thunk final Launcher mLauncher;
     @Thunk DragController mDragController;
+    private final BoundViewIndex mBoundViewIndex = new BoundViewIndex();
 
     private final int[] mTempXY = new int[2];
     @Thunk float[] mDragViewVisualCenter = new float[2];
@@ -589,8 +592,16 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
             ((ViewGroup) quickSpace.getParent()).removeView(quickSpace);
         }
 
-        // Remove the pages and clear the screen models
+        // Remove the pages and clear the screen models. The pages are removed with their items,
+        // so the items are not removed from the index one by one.
         removeFolderListeners();
+        for (int i = 0; i < getChildCount(); i++) {
+            ShortcutAndWidgetContainer container =
+                    ((CellLayout) getChildAt(i)).getShortcutsAndWidgets();
+            for (int j = 0; j < container.getChildCount(); j++) {
+                mBoundViewIndex.onViewRemoved(container.getChildAt(j));
+            }
+        }
         removeAllViews();
         mScreenOrder.clear();
         mWorkspaceScreens.clear();
@@ -1319,7 +1330,7 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
     }
 
     protected void setWallpaperDimension() {
-        Utilities.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+        getLane(LANE_MAINTENANCE).execute(new Runnable() {
             @Override
             public void run() {
                 final Point size = LauncherAppState.getIDP(getContext()).defaultWallpaperSize;
@@ -3209,6 +3220,14 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
         stripEmptyScreens();
     }
 
+    /**
+     * Returns the index of the views visited by {@link #mapOverItems}, to find the views of a
+     * few items without walking all of them.
+     */
+    public BoundViewIndex getBoundViewIndex() {
+        return mBoundViewIndex;
+    }
+
     public interface ItemOperator {
         /**
          * Process the next itemInfo, possibly with side-effect on the next item.
@@ -3257,81 +3276,107 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
         }
     }
 
-    void updateShortcuts(ArrayList<ShortcutInfo> shortcuts) {
-        int total  = shortcuts.size();
-        final HashSet<ShortcutInfo> updates = new HashSet<>(total);
-        final HashSet<Long> folderIds = new HashSet<>();
-
-        for (int i = 0; i < total; i++) {
-            ShortcutInfo s = shortcuts.get(i);
-            updates.add(s);
-            folderIds.add(s.container);
+    /**
+     * Replaces the views bound from the workspace snapshot with the loaded {@param items}. Icons
+     * which are still at the same place are updated in place, all the other views are removed.
+     *
+     * @return the items which still need to be bound.
+     */
+    ArrayList<ItemInfo> replaceSnapshotItems(ArrayList<ItemInfo> items) {
+        final LongArrayMap<ItemInfo> loadedItems = new LongArrayMap<>();
+        for (ItemInfo item : items) {
+            loadedItems.put(item.id, item);
         }
 
-        mapOverItems(MAP_RECURSE, new ItemOperator() {
+        final ArrayList<View> staleViews = new ArrayList<>();
+        mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
             @Override
             public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof ShortcutInfo && v instanceof BubbleTextView &&
-                        updates.contains(info)) {
-                    ShortcutInfo si = (ShortcutInfo) info;
-                    BubbleTextView shortcut = (BubbleTextView) v;
-                    Drawable oldIcon = shortcut.getIcon();
-                    boolean oldPromiseState = (oldIcon instanceof PreloadIconDrawable)
-                            && ((PreloadIconDrawable) oldIcon).hasNotCompleted();
-                    shortcut.applyFromShortcutInfo(si, si.isPromise() != oldPromiseState);
+                if (info == null) {
+                    // Not an item, like the QuickSpace
+                    return false;
+                }
+                ItemInfo item = loadedItems.get(info.id);
+                if (item instanceof ShortcutInfo && info instanceof ShortcutInfo
+                        && v instanceof BubbleTextView && isSamePlacement(info, item)) {
+                    ((BubbleTextView) v).applyFromShortcutInfo((ShortcutInfo) item);
+                    mBoundViewIndex.onViewTagChanged(v);
+                    loadedItems.remove(item.id);
+                } else {
+                    staleViews.add(v);
                 }
                 // process all the shortcuts
                 return false;
             }
         });
+        for (View v : staleViews) {
+            removeWorkspaceItem(v);
+        }
+
+        ArrayList<ItemInfo> unboundItems = new ArrayList<>(loadedItems.size());
+        for (ItemInfo item : items) {
+            if (loadedItems.get(item.id) != null) {
+                unboundItems.add(item);
+            }
+        }
+        return unboundItems;
+    }
+
+    private static boolean isSamePlacement(ItemInfo a, ItemInfo b) {
+        return a.itemType == b.itemType && a.container == b.container
+                && a.screenId == b.screenId && a.cellX == b.cellX && a.cellY == b.cellY
+                && a.spanX == b.spanX && a.spanY == b.spanY;
+    }
+
+    void updateShortcuts(ArrayList<ShortcutInfo> shortcuts) {
+        final HashSet<Long> folderIds = new HashSet<>();
+        for (ShortcutInfo si : shortcuts) {
+            View v = mBoundViewIndex.getView(si);
+            if (v instanceof BubbleTextView) {
+                BubbleTextView shortcut = (BubbleTextView) v;
+                Drawable oldIcon = shortcut.getIcon();
+                boolean oldPromiseState = (oldIcon instanceof PreloadIconDrawable)
+                        && ((PreloadIconDrawable) oldIcon).hasNotCompleted();
+                shortcut.applyFromShortcutInfo(si, si.isPromise() != oldPromiseState);
+            }
+            folderIds.add(si.container);
+        }
 
         // Update folder icons
-        mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof FolderInfo && folderIds.contains(info.id)) {
-                    ((FolderInfo) info).itemsChanged(false);
-                }
-                // process all the shortcuts
-                return false;
+        for (long folderId : folderIds) {
+            View v = mBoundViewIndex.getView(folderId);
+            if (v != null && v.getTag() instanceof FolderInfo) {
+                ((FolderInfo) v.getTag()).itemsChanged(false);
             }
-        });
+        }
     }
 
     public void updateIconBadges(final Set<PackageUserKey> updatedBadges) {
         final PackageUserKey packageUserKey = new PackageUserKey(null, null);
         final HashSet<Long> folderIds = new HashSet<>();
-        mapOverItems(MAP_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
+        for (PackageUserKey key : updatedBadges) {
+            for (View v : mBoundViewIndex.getViews(key)) {
+                ItemInfo info = (ItemInfo) v.getTag();
                 if (info instanceof ShortcutInfo && v instanceof BubbleTextView
-                        && packageUserKey.updateFromItemInfo(info)) {
-                    if (updatedBadges.contains(packageUserKey)) {
-                        ((BubbleTextView) v).applyBadgeState(info, true /* animate */);
-                        folderIds.add(info.container);
-                    }
+                        && packageUserKey.updateFromItemInfo(info)
+                        && packageUserKey.equals(key)) {
+                    ((BubbleTextView) v).applyBadgeState(info, true /* animate */);
+                    folderIds.add(info.container);
                 }
-                // process all the shortcuts
-                return false;
             }
-        });
+        }
 
         // Update folder icons
-        mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof FolderInfo && folderIds.contains(info.id)
-                        && v instanceof FolderIcon) {
-                    FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
-                    for (ShortcutInfo si : ((FolderInfo) info).contents) {
-                        folderBadgeInfo.addBadgeInfo(mLauncher.getBadgeInfoForItem(si));
-                    }
-                    ((FolderIcon) v).setBadgeInfo(folderBadgeInfo);
+        for (long folderId : folderIds) {
+            View v = mBoundViewIndex.getView(folderId);
+            if (v instanceof FolderIcon && v.getTag() instanceof FolderInfo) {
+                FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
+                for (ShortcutInfo si : ((FolderInfo) v.getTag()).contents) {
+                    folderBadgeInfo.addBadgeInfo(mLauncher.getBadgeInfoForItem(si));
                 }
-                // process all the shortcuts
-                return false;
+                ((FolderIcon) v).setBadgeInfo(folderBadgeInfo);
             }
-        });
+        }
     }
 
     public void removeAbandonedPromise(String packageName, UserHandle user) {
@@ -3343,21 +3388,15 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
     }
 
     public void updateRestoreItems(final HashSet<ItemInfo> updates) {
-        mapOverItems(MAP_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof ShortcutInfo && v instanceof BubbleTextView
-                        && updates.contains(info)) {
-                    ((BubbleTextView) v).applyPromiseState(false /* promiseStateChanged */);
-                } else if (v instanceof PendingAppWidgetHostView
-                        && info instanceof LauncherAppWidgetInfo
-                        && updates.contains(info)) {
-                    ((PendingAppWidgetHostView) v).applyState();
-                }
-                // process all the shortcuts
-                return false;
+        for (ItemInfo info : updates) {
+            View v = mBoundViewIndex.getView(info);
+            if (info instanceof ShortcutInfo && v instanceof BubbleTextView) {
+                ((BubbleTextView) v).applyPromiseState(false /* promiseStateChanged */);
+            } else if (v instanceof PendingAppWidgetHostView
+                    && info instanceof LauncherAppWidgetInfo) {
+                ((PendingAppWidgetHostView) v).applyState();
             }
-        });
+        }
     }
 
     public void widgetsRestored(final ArrayList<LauncherAppWidgetInfo> changedInfo) {
@@ -3381,18 +3420,13 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
             } else {
                 // widgetRefresh will automatically run when the packages are updated.
                 // For now just update the progress bars
-                mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
-                    @Override
-                    public boolean evaluate(ItemInfo info, View view) {
-                        if (view instanceof PendingAppWidgetHostView
-                                && changedInfo.contains(info)) {
-                            ((LauncherAppWidgetInfo) info).installProgress = 100;
-                            ((PendingAppWidgetHostView) view).applyState();
-                        }
-                        // process all the shortcuts
-                        return false;
+                for (LauncherAppWidgetInfo info : changedInfo) {
+                    View view = mBoundViewIndex.getView(info);
+                    if (view instanceof PendingAppWidgetHostView) {
+                        info.installProgress = 100;
+                        ((PendingAppWidgetHostView) view).applyState();
                     }
-                });
+                }
             }
         }
     }
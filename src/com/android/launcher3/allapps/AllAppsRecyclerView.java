@@ -220,6 +220,21 @@ public class AllAppsRecyclerView extends BaseRecyclerView implements LogContaine
             public void onChanged() {
                 mCachedScrollPositions.clear();
             }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
         });
         mFastScrollHelper.onSetAdapter((AllAppsGridAdapter) adapter);
     }
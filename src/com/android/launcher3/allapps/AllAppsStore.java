@@ -15,6 +15,8 @@
  */
 package com.android.launcher3.allapps;
 
+import android.text.TextUtils;
+import android.util.Pair;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -29,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -44,6 +47,12 @@ public class AllAppsStore {
     private boolean mDeferUpdates = false;
     private boolean mUpdatePending = false;
 
+    // The apps changed since the listeners were last notified, mapped to the app they were
+    // notified of, or null if the app was not in the list then.
+    private final HashMap<ComponentKey, AppInfo> mChangedApps = new HashMap<>();
+    // Whether the whole list changed since the listeners were last notified.
+    private boolean mFullUpdatePending = false;
+
     public Collection<AppInfo> getApps() {
         return mComponentToAppMap.values();
     }
@@ -53,6 +62,7 @@ public class AllAppsStore {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
+        mFullUpdatePending = true;
         addOrUpdateApps(apps);
     }
 
@@ -76,7 +86,8 @@ public class AllAppsStore {
      */
     public void addOrUpdateApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.put(app.toComponentKey(), app);
+            ComponentKey key = app.toComponentKey();
+            onAppChanged(key, mComponentToAppMap.put(key, app));
         }
         notifyUpdate();
     }
@@ -86,21 +97,60 @@ public class AllAppsStore {
      */
     public void removeApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.remove(app.toComponentKey());
+            ComponentKey key = app.toComponentKey();
+            AppInfo oldApp = mComponentToAppMap.remove(key);
+            if (oldApp != null) {
+                onAppChanged(key, oldApp);
+            }
         }
         notifyUpdate();
     }
 
+    private void onAppChanged(ComponentKey key, AppInfo oldApp) {
+        if (!mFullUpdatePending && !mChangedApps.containsKey(key)) {
+            mChangedApps.put(key, oldApp);
+        }
+    }
 
     private void notifyUpdate() {
         if (mDeferUpdates) {
             mUpdatePending = true;
             return;
         }
+        AppsDelta delta = mFullUpdatePending ? null : createDelta();
+        mChangedApps.clear();
+        mFullUpdatePending = false;
+
         int count = mUpdateListeners.size();
         for (int i = 0; i < count; i++) {
-            mUpdateListeners.get(i).onAppsUpdated();
+            OnUpdateListener listener = mUpdateListeners.get(i);
+            if (delta != null && listener instanceof OnDeltaListener) {
+                ((OnDeltaListener) listener).onAppsChanged(delta);
+            } else {
+                listener.onAppsUpdated();
+            }
+        }
+    }
+
+    private AppsDelta createDelta() {
+        AppsDelta delta = new AppsDelta();
+        for (Map.Entry<ComponentKey, AppInfo> entry : mChangedApps.entrySet()) {
+            AppInfo oldApp = entry.getValue();
+            AppInfo newApp = mComponentToAppMap.get(entry.getKey());
+            if (oldApp == null) {
+                if (newApp != null) {
+                    delta.added.add(newApp);
+                }
+            } else if (newApp == null) {
+                delta.removed.add(oldApp);
+            } else if (!TextUtils.equals(oldApp.title, newApp.title) || oldApp == newApp) {
+                // An app updated in place may have a new title, it is handled like one.
+                delta.titleChanged.add(Pair.create(oldApp, newApp));
+            } else {
+                delta.iconChanged.add(Pair.create(oldApp, newApp));
+            }
         }
+        return delta;
     }
 
     public void addUpdateListener(OnUpdateListener listener) {
@@ -158,6 +208,31 @@ public class AllAppsStore {
         void onAppsUpdated();
     }
 
+    /**
+     * Listener which can apply the changes of the apps instead of reloading all of them. It is
+     * still told to reload all of them with {@link #onAppsUpdated()} when the whole list is set.
+     */
+    public interface OnDeltaListener extends OnUpdateListener {
+        void onAppsChanged(AppsDelta delta);
+    }
+
+    /**
+     * The apps which changed since the last update, changed apps are given as pairs of the app
+     * before and after the change.
+     */
+    public static class AppsDelta {
+        public final ArrayList<AppInfo> added = new ArrayList<>();
+        public final ArrayList<AppInfo> removed = new ArrayList<>();
+        public final ArrayList<Pair<AppInfo, AppInfo>> titleChanged = new ArrayList<>();
+        // Apps with the same title, whose position in the list does not change.
+        public final ArrayList<Pair<AppInfo, AppInfo>> iconChanged = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && titleChanged.isEmpty()
+                    && iconChanged.isEmpty();
+        }
+    }
+
     public interface IconAction {
         void apply(BubbleTextView icon);
     }
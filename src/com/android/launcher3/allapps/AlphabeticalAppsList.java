@@ -17,6 +17,7 @@ package com.android.launcher3.allapps;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.util.Pair;
 
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.Launcher;
@@ -38,13 +39,19 @@ import java.util.TreeMap;
 /**
  * The alphabetically sorted list of applications.
  */
-public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
+public class AlphabeticalAppsList implements AllAppsStore.OnDeltaListener {
 
     public static final String TAG = "AlphabeticalAppsList";
 
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_ROWS_FRACTION = 0;
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS = 1;
 
+    // Changes of the adapter items, see onAppsChanged.
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_MOVE = 2;
+    private static final int OP_CHANGE = 3;
+
     private final int mFastScrollDistributionMode = FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS;
 
     /**
@@ -290,6 +297,138 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         updateAdapterItems();
     }
 
+    /**
+     * Applies the changed apps to the sorted list, and notifies the adapter of the moved items
+     * only. The whole list is only sorted again when the sections are coalesced, or while
+     * searching, where the adapter items are not the sorted apps.
+     */
+    @Override
+    public void onAppsChanged(AllAppsStore.AppsDelta delta) {
+        Locale curLocale = mLauncher.getResources().getConfiguration().locale;
+        if (hasFilter() || curLocale.equals(Locale.SIMPLIFIED_CHINESE)) {
+            onAppsUpdated();
+            return;
+        }
+        if (delta.isEmpty()) {
+            return;
+        }
+
+        // The app items are the first adapter items, in the order of mApps.
+        int oldItemCount = mAdapterItems.size();
+        int expectedItemCount = oldItemCount;
+        ArrayList<int[]> ops = new ArrayList<>();
+        for (AppInfo app : delta.removed) {
+            int index = indexOfApp(app);
+            if (index >= 0) {
+                mApps.remove(index);
+                ops.add(new int[] {OP_REMOVE, index, 0});
+                expectedItemCount--;
+            }
+        }
+        for (Pair<AppInfo, AppInfo> change : delta.titleChanged) {
+            int from = indexOfApp(change.first);
+            if (from >= 0) {
+                mApps.remove(from);
+            }
+            if (!matchesFilter(change.second)) {
+                if (from >= 0) {
+                    ops.add(new int[] {OP_REMOVE, from, 0});
+                    expectedItemCount--;
+                }
+                continue;
+            }
+            int to = insertApp(change.second);
+            if (from >= 0) {
+                ops.add(new int[] {OP_MOVE, from, to});
+                ops.add(new int[] {OP_CHANGE, to, 0});
+            } else {
+                ops.add(new int[] {OP_INSERT, to, 0});
+                expectedItemCount++;
+            }
+        }
+        for (Pair<AppInfo, AppInfo> change : delta.iconChanged) {
+            int index = indexOfApp(change.first);
+            if (index >= 0) {
+                mApps.set(index, change.second);
+                ops.add(new int[] {OP_CHANGE, index, 0});
+            }
+        }
+        for (AppInfo app : delta.added) {
+            if (matchesFilter(app)) {
+                ops.add(new int[] {OP_INSERT, insertApp(app), 0});
+                expectedItemCount++;
+            }
+        }
+
+        refillAdapterItems();
+        if (mAdapter == null) {
+            return;
+        }
+        if (mAdapterItems.size() != expectedItemCount) {
+            // Other items, like the work footer, changed as well.
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+        for (int[] op : ops) {
+            switch (op[0]) {
+                case OP_REMOVE:
+                    mAdapter.notifyItemRemoved(op[1]);
+                    break;
+                case OP_INSERT:
+                    mAdapter.notifyItemInserted(op[1]);
+                    break;
+                case OP_MOVE:
+                    mAdapter.notifyItemMoved(op[1], op[2]);
+                    break;
+                case OP_CHANGE:
+                    mAdapter.notifyItemChanged(op[1]);
+                    break;
+            }
+        }
+    }
+
+    private boolean matchesFilter(AppInfo app) {
+        return mItemFilter == null || mItemFilter.matches(app, null);
+    }
+
+    /**
+     * Inserts {@param app} in the sorted list of apps, after the apps which compare equal.
+     *
+     * @return the index of the app.
+     */
+    private int insertApp(AppInfo app) {
+        int low = 0;
+        int high = mApps.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mAppNameComparator.compare(mApps.get(mid), app) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        mApps.add(low, app);
+        getAndUpdateCachedSectionName(app.title);
+        return low;
+    }
+
+    /**
+     * Returns the index of {@param app} in the sorted list of apps, or -1.
+     */
+    private int indexOfApp(AppInfo app) {
+        int index = Collections.binarySearch(mApps, app, mAppNameComparator);
+        if (index >= 0 && mApps.get(index) == app) {
+            return index;
+        }
+        // The app compares equal to its neighbours, or was changed in place since it was sorted.
+        for (int i = 0; i < mApps.size(); i++) {
+            if (mApps.get(i) == app) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Updates the set of filtered apps with the current filter.  At this point, we expect
      * mCachedSectionNames to have been calculated for the set of all apps in mApps.
@@ -21,7 +21,6 @@ import android.os.UserHandle;
 
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.compat.UserManagerCompat;
-import com.android.launcher3.util.LabelComparator;
 
 import java.util.Comparator;
 
@@ -32,18 +31,16 @@ public class AppInfoComparator implements Comparator<AppInfo> {
 
     private final UserManagerCompat mUserManager;
     private final UserHandle mMyUser;
-    private final LabelComparator mLabelComparator;
 
     public AppInfoComparator(Context context) {
         mUserManager = UserManagerCompat.getInstance(context);
         mMyUser = Process.myUserHandle();
-        mLabelComparator = new LabelComparator();
     }
 
     @Override
     public int compare(AppInfo a, AppInfo b) {
         // Order by the title in the current locale
-        int result = mLabelComparator.compare(a.title.toString(), b.title.toString());
+        int result = a.getLabelKey().compareTo(b.getLabelKey());
         if (result != 0) {
             return result;
         }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.os.CancellationSignal;
+import android.os.UserHandle;
+import android.support.annotation.Nullable;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm.StringMatcher;
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * An in-memory index of app titles used for searching all apps.
+ *
+ * The index is owned by the model and is updated incrementally from the worker thread as the
+ * all apps list changes. Queries can be made from any thread and never touch the package manager
+ * or the icon cache.
+ */
+public class AppSearchIndex {
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    // < only access when holding the lock on this object >
+    private final LinkedHashMap<ComponentKey, Entry> mEntries = new LinkedHashMap<>();
+
+    // Immutable copy of mEntries, invalidated on every change and lazily rebuilt on query.
+    private volatile Entry[] mSnapshot = EMPTY;
+
+    /**
+     * Adds or updates the entry for the provided app.
+     */
+    public void addOrUpdate(AppInfo info) {
+        // The index is built on the worker thread, verify the folding there rather than on the
+        // first query.
+        StringMatcher.verifyFoldingSupport();
+
+        ComponentKey key = info.toComponentKey();
+        String title = info.title == null ? "" : info.title.toString();
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry == null || entry.info != info || !entry.title.equals(title)) {
+                mEntries.put(key, new Entry(key, info, title));
+                mSnapshot = null;
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for the provided app, if present.
+     */
+    public synchronized void remove(AppInfo info) {
+        if (mEntries.remove(info.toComponentKey()) != null) {
+            mSnapshot = null;
+        }
+    }
+
+    /**
+     * Removes all the entries for the provided package and user.
+     */
+    public synchronized void removePackage(String packageName, UserHandle user) {
+        Iterator<ComponentKey> itr = mEntries.keySet().iterator();
+        while (itr.hasNext()) {
+            ComponentKey key = itr.next();
+            if (key.user.equals(user) && packageName.equals(key.componentName.getPackageName())) {
+                itr.remove();
+                mSnapshot = null;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSnapshot = EMPTY;
+    }
+
+    /**
+     * Returns a new session for searching this index. Sessions remember their last results,
+     * so each caller should keep its own session for the lifetime of a search UI.
+     */
+    public SearchSession newSession() {
+        return new SearchSession();
+    }
+
+    private static ArrayList<Entry> findMatches(String query, List<Entry> candidates,
+            @Nullable CancellationSignal signal) {
+        ArrayList<Entry> result = new ArrayList<>();
+        StringMatcher matcher = StringMatcher.getInstance();
+        char[] foldedQuery = matcher.supportsFolding() ? StringMatcher.foldAscii(query) : null;
+        int count = candidates.size();
+        for (int i = 0; i < count; i++) {
+            if (signal != null && signal.isCanceled()) {
+                return null;
+            }
+            Entry entry = candidates.get(i);
+            if (entry.matches(query, foldedQuery, matcher)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return getEntries().length;
+    }
+
+    private Entry[] getEntries() {
+        Entry[] entries = mSnapshot;
+        if (entries == null) {
+            synchronized (this) {
+                entries = mSnapshot;
+                if (entries == null) {
+                    entries = mEntries.values().toArray(new Entry[mEntries.size()]);
+                    mSnapshot = entries;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Keeps the results of the last query as the candidate set for the next one. Extending a
+     * query can only narrow its matches, so only the previous matches are scanned in that case.
+     * A full scan is done on backspace, for an unrelated query, or when the index has changed.
+     * Sessions are not thread safe.
+     */
+    public class SearchSession {
+
+        private Entry[] mSource;
+        private String mLastQuery;
+        private ArrayList<Entry> mLastMatches;
+
+        private SearchSession() { }
+
+        /**
+         * Returns the keys of all the apps whose title matches {@param query}. The query is
+         * expected to be in lower case.
+         */
+        public ArrayList<ComponentKey> search(String query) {
+            ArrayList<Entry> matches = findMatches(query, null);
+            ArrayList<ComponentKey> result = new ArrayList<>(matches.size());
+            for (Entry entry : matches) {
+                result.add(entry.key);
+            }
+            return result;
+        }
+
+        /**
+         * Returns all the apps whose title matches {@param query}, or null if the search was
+         * cancelled through {@param signal}. The query is expected to be in lower case.
+         */
+        public @Nullable ArrayList<AppInfo> searchApps(String query,
+                @Nullable CancellationSignal signal) {
+            ArrayList<Entry> matches = findMatches(query, signal);
+            if (matches == null) {
+                return null;
+            }
+            ArrayList<AppInfo> result = new ArrayList<>(matches.size());
+            for (Entry entry : matches) {
+                result.add(entry.info);
+            }
+            return result;
+        }
+
+        private ArrayList<Entry> findMatches(String query, @Nullable CancellationSignal signal) {
+            Entry[] source = getEntries();
+            List<Entry> candidates;
+            if (source == mSource && mLastQuery != null && !mLastQuery.isEmpty()
+                    && query.startsWith(mLastQuery)) {
+                if (query.length() == mLastQuery.length()) {
+                    return new ArrayList<>(mLastMatches);
+                }
+                candidates = mLastMatches;
+            } else {
+                candidates = Arrays.asList(source);
+            }
+
+            ArrayList<Entry> matches = AppSearchIndex.findMatches(query, candidates, signal);
+            if (matches != null) {
+                mSource = source;
+                mLastQuery = query;
+                mLastMatches = matches;
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * A single app title along with the word break points and the folded title computed at
+     * index time.
+     */
+    static class Entry {
+
+        final ComponentKey key;
+        final AppInfo info;
+        final String title;
+        final int[] breakPoints;
+        // The title in lower case, or null if it contains non-ascii characters.
+        final char[] foldedTitle;
+
+        Entry(ComponentKey key, AppInfo info, String title) {
+            this.key = key;
+            this.info = info;
+            this.title = title;
+            this.breakPoints = DefaultAppSearchAlgorithm.getBreakPoints(title);
+            this.foldedTitle = StringMatcher.foldAscii(title);
+        }
+
+        /**
+         * Returns true if {@param query} matches the title at any break point. When both the
+         * query and the title could be folded, the comparison is done without any allocation.
+         */
+        boolean matches(String query, char[] foldedQuery, StringMatcher matcher) {
+            int queryLength = query.length();
+            int titleLength = title.length();
+            if (titleLength < queryLength || queryLength <= 0) {
+                return false;
+            }
+
+            int end = titleLength - queryLength;
+            for (int i : breakPoints) {
+                if (i > end) {
+                    break;
+                }
+                if (foldedQuery != null && foldedTitle != null) {
+                    if (matcher.matches(foldedQuery, foldedTitle, i)) {
+                        return true;
+                    }
+                } else if (matcher.matches(query, title.substring(i, i + queryLength))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -142,7 +142,7 @@ public class AppsSearchContainerLayout extends ExtendedEditText
         mApps = appsView.getApps();
         mAppsView = appsView;
         mSearchBarController.initialize(
-                new DefaultAppSearchAlgorithm(getContext(), mApps.getApps()), this, mLauncher, this);
+                new DefaultAppSearchAlgorithm(getContext()), this, mLauncher, this);
     }
 
     @Override
@@ -15,39 +15,30 @@
  */
 package com.android.launcher3.allapps.search;
 
-import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.LauncherActivityInfo;
 import android.os.Handler;
-import android.os.UserHandle;
 
-import com.android.launcher3.AppInfo;
-import com.android.launcher3.AppFilter;
-import com.android.launcher3.IconCache;
 import com.android.launcher3.LauncherAppState;
-import com.android.launcher3.StringSetAppFilter;
-import com.android.launcher3.compat.LauncherAppsCompat;
-import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.util.ComponentKey;
 
 import java.text.Collator;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Locale;
 
 /**
  * The default search implementation.
  */
 public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
 
-    private final List<AppInfo> mApps;
+    private final AppSearchIndex.SearchSession mSearchSession;
     protected final Handler mResultHandler;
-    public final AppFilter mBaseFilter;
     public final Context mContext;
 
-    public DefaultAppSearchAlgorithm(Context context, List<AppInfo> apps) {
+    public DefaultAppSearchAlgorithm(Context context) {
         mContext = context;
-        mApps = apps;
-        mBaseFilter = new StringSetAppFilter(context);
+        mSearchSession = LauncherAppState.getInstance(context).getModel()
+                .getAppSearchIndex().newSession();
         mResultHandler = new Handler();
     }
 
@@ -75,61 +66,32 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
         // Do an intersection of the words in the query and each title, and filter out all the
         // apps that don't match all of the words in the query.
         final String queryTextLower = query.toLowerCase();
-        final ArrayList<ComponentKey> result = new ArrayList<>();
-        StringMatcher matcher = StringMatcher.getInstance();
-        for (AppInfo info : getApps(mContext, mApps, mBaseFilter)) {
-            if (matches(info, queryTextLower, matcher)) {
-                result.add(info.toComponentKey());
-            }
-        }
-        return result;
-    }
-
-    public static List<AppInfo> getApps(Context context, List<AppInfo> defaultApps, AppFilter filter) {
-        List<AppInfo> apps = new ArrayList();
-        IconCache iconCache = LauncherAppState.getInstance(context).getIconCache();
-        for (UserHandle user : UserManagerCompat.getInstance(context).getUserProfiles()) {
-            List<ComponentName> duplicatePreventionCache = new ArrayList();
-            for (LauncherActivityInfo info : LauncherAppsCompat.getInstance(context).getActivityList(null, user)) {
-                if (filter.shouldShowApp(info.getComponentName().getPackageName(), context, true)) {
-                    if (!duplicatePreventionCache.contains(info.getComponentName())) {
-                        duplicatePreventionCache.add(info.getComponentName());
-                        AppInfo appInfo = new AppInfo(context, info, user);
-                        iconCache.getTitleAndIcon(appInfo, false);
-                        apps.add(appInfo);
-                    }
-                }
-            }
-        }
-        return apps;
+        return mSearchSession.search(queryTextLower);
     }
 
-    public static boolean matches(AppInfo info, String query, StringMatcher matcher) {
-        int queryLength = query.length();
-
-        String title = info.title.toString();
+    /**
+     * Returns the indices in {@param title} at which a query is allowed to start matching.
+     */
+    public static int[] getBreakPoints(String title) {
         int titleLength = title.length();
-
-        if (titleLength < queryLength || queryLength <= 0) {
-            return false;
-        }
+        int[] breakPoints = new int[titleLength];
+        int count = 0;
 
         int lastType;
         int thisType = Character.UNASSIGNED;
-        int nextType = Character.getType(title.codePointAt(0));
+        int nextType = titleLength > 0 ?
+                Character.getType(title.codePointAt(0)) : Character.UNASSIGNED;
 
-        int end = titleLength - queryLength;
-        for (int i = 0; i <= end; i++) {
+        for (int i = 0; i < titleLength; i++) {
             lastType = thisType;
             thisType = nextType;
             nextType = i < (titleLength - 1) ?
                     Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
-            if (isBreak(thisType, lastType, nextType) &&
-                    matcher.matches(query, title.substring(i, i + queryLength))) {
-                return true;
+            if (isBreak(thisType, lastType, nextType)) {
+                breakPoints[count++] = i;
             }
         }
-        return false;
+        return count == titleLength ? breakPoints : Arrays.copyOf(breakPoints, count);
     }
 
     /**
@@ -183,6 +145,14 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
 
         private static final char MAX_UNICODE = '\uFFFF';
 
+        private static final char FIRST_PRINTABLE_ASCII = ' ';
+        private static final char LAST_PRINTABLE_ASCII = '~';
+
+        // The last locale verified by verifyFoldingSupport(), and the same locale if folding
+        // is supported for it.
+        private static Locale sVerifiedLocale;
+        private static volatile Locale sFoldingLocale;
+
         private final Collator mCollator;
 
         StringMatcher() {
@@ -211,6 +181,76 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
             }
         }
 
+        /**
+         * Returns true if {@param query} matches {@param target} starting at {@param offset}.
+         * Both arrays are expected to be obtained using {@link #foldAscii(String)}, and this
+         * should only be used when {@link #supportsFolding()} is true.
+         */
+        public boolean matches(char[] query, char[] target, int offset) {
+            int queryLength = query.length;
+            if (offset + queryLength > target.length) {
+                return false;
+            }
+            for (int i = 0; i < queryLength; i++) {
+                if (query[i] != target[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if folded ascii strings give the same results as the collator for the
+         * current locale, which is false until {@link #verifyFoldingSupport()} has run for it.
+         */
+        public boolean supportsFolding() {
+            return Locale.getDefault().equals(sFoldingLocale);
+        }
+
+        /**
+         * Verifies whether folding is supported for the current locale, if it was not verified
+         * yet, by comparing every pair of printable ascii characters as some locales tailor the
+         * order of latin characters. This should not be called on the UI thread.
+         */
+        public static void verifyFoldingSupport() {
+            Locale locale = Locale.getDefault();
+            synchronized (StringMatcher.class) {
+                if (!locale.equals(sVerifiedLocale)) {
+                    sFoldingLocale = getInstance().verifyFolding() ? locale : null;
+                    sVerifiedLocale = locale;
+                }
+            }
+        }
+
+        private boolean verifyFolding() {
+            for (char a = FIRST_PRINTABLE_ASCII; a <= LAST_PRINTABLE_ASCII; a++) {
+                for (char b = FIRST_PRINTABLE_ASCII; b <= LAST_PRINTABLE_ASCII; b++) {
+                    boolean expected = Character.toLowerCase(a) == Character.toLowerCase(b);
+                    if (matches(String.valueOf(a), String.valueOf(b)) != expected) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns {@param text} converted to lower case if it only contains printable ascii
+         * characters, or null otherwise.
+         */
+        public static char[] foldAscii(String text) {
+            int length = text.length();
+            char[] folded = new char[length];
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < FIRST_PRINTABLE_ASCII || c > LAST_PRINTABLE_ASCII) {
+                    return null;
+                }
+                folded[i] = Character.toLowerCase(c);
+            }
+            return folded;
+        }
+
         public static StringMatcher getInstance() {
             return new StringMatcher();
         }
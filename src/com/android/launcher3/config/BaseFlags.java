@@ -52,6 +52,10 @@ abstract class BaseFlags {
     // Features to control Launcher3Go behavior
     public static final boolean GO_DISABLE_WIDGETS = false;
 
+    // When enabled the icon and widget preview caches store bitmaps uncompressed in a file next
+    // to their DB instead of as PNG in the DB.
+    public static final boolean RAW_BITMAP_CACHE = false;
+
     // When enabled shows a work profile tab in all apps
     public static final boolean ALL_APPS_TABS_ENABLED = true;
 
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.graphics;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.LongSparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of mutable bitmaps which are no longer used, shared by everything which needs a scratch
+ * or a short lived bitmap, so that they do not need to be allocated again.
+ *
+ * Bitmaps are bucketed by their exact size and config. Only bitmaps which are not referenced
+ * anywhere else can be released to the pool, as they will be drawn over by the next user. The
+ * pool keeps at most 1/32 of the heap, anything released past that is left to the garbage
+ * collector.
+ */
+public class BitmapPool {
+
+    private static final int MAX_POOL_BYTES_DIVISOR = 32;
+
+    private static final BitmapPool INSTANCE = new BitmapPool();
+
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    private final long mMaxBytes = Runtime.getRuntime().maxMemory() / MAX_POOL_BYTES_DIVISOR;
+
+    private final LongSparseArray<ArrayDeque<Bitmap>> mBuckets = new LongSparseArray<>();
+    private long mBytes;
+
+    private long mReuseCount;
+    private long mMissCount;
+    private long mDroppedCount;
+
+    private BitmapPool() { }
+
+    /**
+     * Returns a mutable bitmap of the given size and config. The bitmap comes from the pool if
+     * one is available, in which case it still holds the pixels of its previous user.
+     */
+    public Bitmap obtain(int width, int height, Config config) {
+        synchronized (this) {
+            ArrayDeque<Bitmap> bucket = mBuckets.get(getKey(width, height, config));
+            Bitmap bitmap = bucket == null ? null : bucket.pollLast();
+            if (bitmap != null) {
+                mBytes -= bitmap.getAllocationByteCount();
+                mReuseCount++;
+                return bitmap;
+            }
+            mMissCount++;
+        }
+        // Creating a bitmap is expensive, do not do it while holding the lock.
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Gives {@param bitmap} back to the pool. It must not be used or drawn by the caller anymore.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()
+                || bitmap.getConfig() == null) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        synchronized (this) {
+            if (mBytes + size > mMaxBytes) {
+                mDroppedCount++;
+                return;
+            }
+            long key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                mBuckets.put(key, bucket);
+            }
+            bucket.addLast(bitmap);
+            mBytes += size;
+        }
+    }
+
+    /**
+     * Releases the pooled bitmaps based on {@param level}, as reported by
+     * {@link ComponentCallbacks2#onTrimMemory}.
+     */
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mBuckets.clear();
+            mBytes = 0;
+        }
+    }
+
+    private static long getKey(int width, int height, Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "BitmapPool: buckets=" + mBuckets.size() + " bytes=" + mBytes
+                + " maxBytes=" + mMaxBytes);
+        writer.println(prefix + "  reused=" + mReuseCount + " missed=" + mMissCount
+                + " dropped=" + mDroppedCount);
+    }
+}
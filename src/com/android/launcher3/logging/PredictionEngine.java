@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2018 CypherOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.logging;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.Log;
+
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.Utilities;
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.compat.LauncherAppsCompat.OnAppsChangedCallbackCompat;
+import com.android.launcher3.shortcuts.ShortcutInfoCompat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps time decayed launch scores of apps in memory and persists them in batches.
+ *
+ * Scores are stored in fixed size primitive arrays, as only a handful of apps are tracked. Apps
+ * are dropped when their package is removed instead of checking the package manager on every
+ * prediction, and the launch targets of the watched apps are only resolved again when one of
+ * them changes. All the methods are expected to be called on the main thread.
+ */
+class PredictionEngine implements OnAppsChangedCallbackCompat {
+
+    private static final String TAG = "PredictionEngine";
+
+    private static final String PREDICTION_SCORES = "pref_prediction_scores";
+
+    // Launch scores halve every few days so that old habits fade away.
+    private static final long HALF_LIFE_MS = TimeUnit.DAYS.toMillis(3);
+    // Launches are written to disk at most once per this delay.
+    private static final long SAVE_DELAY_MS = 5000;
+
+    private static PredictionEngine sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    private final String[] mWatchedPackages;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSaveRunnable = this::save;
+
+    private final float mBoost;
+    private final String[] mComponents;
+    private final float[] mScores;
+    private final long[] mUpdateTimes;
+    private int mSize;
+
+    // Launch targets of the installed watched apps, or null if they need to be resolved again.
+    private List<ComponentName> mWatchedComponents;
+
+    static PredictionEngine getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new PredictionEngine(appContext, Utilities.getPrefs(appContext),
+                    PredictionsDispatcher.WATCHED_APPS, PredictionsDispatcher.MAX_PREDICTIONS,
+                    PredictionsDispatcher.BOOST_ON_OPEN);
+            LauncherAppsCompat.getInstance(appContext).addOnAppsChangedCallback(sInstance);
+        }
+        return sInstance;
+    }
+
+    private PredictionEngine(Context context, SharedPreferences prefs, String[] watchedPackages,
+            int capacity, float boost) {
+        mContext = context;
+        mPrefs = prefs;
+        mWatchedPackages = watchedPackages;
+        mBoost = boost;
+        mComponents = new String[capacity];
+        mScores = new float[capacity];
+        mUpdateTimes = new long[capacity];
+        load();
+    }
+
+    /**
+     * Boosts the score of {@param component}, replacing the lowest scoring app if needed.
+     */
+    void onAppLaunched(String component) {
+        long now = System.currentTimeMillis();
+        int index = indexOf(component);
+        if (index < 0) {
+            if (mSize < mComponents.length) {
+                index = mSize++;
+            } else {
+                index = lowestScoreIndex(now);
+            }
+            mComponents[index] = component;
+            mScores[index] = 0;
+            mUpdateTimes[index] = now;
+        }
+        mScores[index] = decayedScore(index, now) + mBoost;
+        mUpdateTimes[index] = now;
+        scheduleSave();
+    }
+
+    /**
+     * Returns the tracked components, highest score first.
+     */
+    List<String> getSortedComponents() {
+        long now = System.currentTimeMillis();
+        int[] order = new int[mSize];
+        float[] scores = new float[mSize];
+        // Insertion sort, as there are only a few entries.
+        for (int i = 0; i < mSize; i++) {
+            float score = decayedScore(i, now);
+            int j = i;
+            while (j > 0 && scores[j - 1] < score) {
+                scores[j] = scores[j - 1];
+                order[j] = order[j - 1];
+                j--;
+            }
+            scores[j] = score;
+            order[j] = i;
+        }
+
+        List<String> result = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            result.add(mComponents[order[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the launch targets of the watched apps which are installed.
+     */
+    List<ComponentName> getWatchedComponents() {
+        if (mWatchedComponents == null) {
+            PackageManager pm = mContext.getPackageManager();
+            List<ComponentName> components = new ArrayList<>();
+            for (String packageName : mWatchedPackages) {
+                Intent intent = pm.getLaunchIntentForPackage(packageName);
+                if (intent != null && intent.getComponent() != null) {
+                    components.add(intent.getComponent());
+                }
+            }
+            mWatchedComponents = components;
+        }
+        return mWatchedComponents;
+    }
+
+    void clear() {
+        if (mSize > 0) {
+            mSize = 0;
+            scheduleSave();
+        }
+    }
+
+    private void removePackages(String... packageNames) {
+        boolean changed = false;
+        for (int i = mSize - 1; i >= 0; i--) {
+            String packageName = getPackageName(mComponents[i]);
+            for (String removed : packageNames) {
+                if (removed.equals(packageName)) {
+                    removeAt(i);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (changed) {
+            scheduleSave();
+        }
+    }
+
+    private void removeAt(int index) {
+        mSize--;
+        mComponents[index] = mComponents[mSize];
+        mScores[index] = mScores[mSize];
+        mUpdateTimes[index] = mUpdateTimes[mSize];
+        mComponents[mSize] = null;
+    }
+
+    private int indexOf(String component) {
+        for (int i = 0; i < mSize; i++) {
+            if (mComponents[i].equals(component)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int lowestScoreIndex(long now) {
+        int lowest = 0;
+        float lowestScore = Float.MAX_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            float score = decayedScore(i, now);
+            if (score < lowestScore) {
+                lowestScore = score;
+                lowest = i;
+            }
+        }
+        return lowest;
+    }
+
+    private float decayedScore(int index, long now) {
+        long elapsed = Math.max(0, now - mUpdateTimes[index]);
+        return (float) (mScores[index] * Math.pow(0.5, (double) elapsed / HALF_LIFE_MS));
+    }
+
+    private void scheduleSave() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mHandler.postDelayed(mSaveRunnable, SAVE_DELAY_MS);
+    }
+
+    private void save() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mSize; i++) {
+            sb.append(mComponents[i]).append(' ')
+                    .append(mScores[i]).append(' ')
+                    .append(mUpdateTimes[i]).append('\n');
+        }
+        mPrefs.edit().putString(PREDICTION_SCORES, sb.toString()).apply();
+    }
+
+    private void load() {
+        String scores = mPrefs.getString(PREDICTION_SCORES, null);
+        if (scores == null) {
+            migrateLaunchCounts();
+        } else {
+            for (String line : scores.split("\n")) {
+                String[] parts = line.split(" ");
+                if (parts.length != 3 || mSize >= mComponents.length) {
+                    continue;
+                }
+                try {
+                    mScores[mSize] = Float.parseFloat(parts[1]);
+                    mUpdateTimes[mSize] = Long.parseLong(parts[2]);
+                    mComponents[mSize] = parts[0];
+                    mSize++;
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Invalid prediction entry " + line);
+                }
+            }
+        }
+        verifyPackagesInBackground();
+    }
+
+    /**
+     * Imports the launch counts stored by older versions, one preference per app.
+     */
+    private void migrateLaunchCounts() {
+        Set<String> oldSet = mPrefs.getStringSet(
+                PredictionsDispatcher.PREDICTION_SET, PredictionsDispatcher.EMPTY_SET);
+        if (oldSet.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Editor edit = mPrefs.edit();
+        for (String component : oldSet) {
+            String countKey = PredictionsDispatcher.PREDICTION_PREFIX + component;
+            if (mSize < mComponents.length && component.indexOf('/') > 0) {
+                mComponents[mSize] = component;
+                mScores[mSize] = mPrefs.getInt(countKey, 0);
+                mUpdateTimes[mSize] = now;
+                mSize++;
+            }
+            edit.remove(countKey);
+        }
+        edit.remove(PredictionsDispatcher.PREDICTION_SET);
+        edit.apply();
+        save();
+    }
+
+    /**
+     * Drops the apps which were uninstalled while launcher was not running. This is only done
+     * once, later removals are reported through {@link #onPackageRemoved}.
+     */
+    private void verifyPackagesInBackground() {
+        if (mSize == 0) {
+            return;
+        }
+        final HashSet<String> packages = new HashSet<>();
+        for (int i = 0; i < mSize; i++) {
+            packages.add(getPackageName(mComponents[i]));
+        }
+        final PackageManager pm = mContext.getPackageManager();
+        new Handler(LauncherModel.getWorkerLooper()).post(() -> {
+            final ArrayList<String> missing = new ArrayList<>();
+            for (String packageName : packages) {
+                try {
+                    pm.getPackageInfo(packageName, 0);
+                } catch (NameNotFoundException e) {
+                    missing.add(packageName);
+                }
+            }
+            if (!missing.isEmpty()) {
+                mHandler.post(() -> removePackages(missing.toArray(new String[missing.size()])));
+            }
+        });
+    }
+
+    private static String getPackageName(String component) {
+        int index = component.indexOf('/');
+        return index < 0 ? component : component.substring(0, index);
+    }
+
+    private void invalidateWatchedComponents(UserHandle user, String... packageNames) {
+        if (mWatchedComponents == null || !Process.myUserHandle().equals(user)) {
+            return;
+        }
+        for (String packageName : packageNames) {
+            for (String watched : mWatchedPackages) {
+                if (watched.equals(packageName)) {
+                    mWatchedComponents = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onPackageRemoved(String packageName, UserHandle user) {
+        if (Process.myUserHandle().equals(user)) {
+            removePackages(packageName);
+        }
+        invalidateWatchedComponents(user, packageName);
+    }
+
+    @Override
+    public void onPackageAdded(String packageName, UserHandle user) {
+        invalidateWatchedComponents(user, packageName);
+    }
+
+    @Override
+    public void onPackageChanged(String packageName, UserHandle user) {
+        invalidateWatchedComponents(user, packageName);
+    }
+
+    @Override
+    public void onPackagesAvailable(String[] packageNames, UserHandle user, boolean replacing) {
+        invalidateWatchedComponents(user, packageNames);
+    }
+
+    @Override
+    public void onPackagesUnavailable(String[] packageNames, UserHandle user,
+            boolean replacing) {
+        invalidateWatchedComponents(user, packageNames);
+    }
+
+    @Override
+    public void onPackagesSuspended(String[] packageNames, UserHandle user) { }
+
+    @Override
+    public void onPackagesUnsuspended(String[] packageNames, UserHandle user) { }
+
+    @Override
+    public void onShortcutsChanged(String packageName, List<ShortcutInfoCompat> shortcuts,
+            UserHandle user) { }
+}
@@ -20,10 +20,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Process;
 import android.os.UserHandle;
 import android.util.Log;
@@ -45,8 +42,6 @@ import com.android.launcher3.util.ComponentKey;
 import com.android.quickstep.logging.UserEventDispatcherExtension;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -96,8 +91,8 @@ public class PredictionsDispatcher extends UserEventDispatcherExtension implemen
     public static final String PREDICTION_SET = "pref_prediction_set";
     public AppFilter mAppFilter;
     public Context mContext;
-    public PackageManager mPackageManager;
     public SharedPreferences mPrefs;
+    private final PredictionEngine mEngine;
 
     public PredictionsDispatcher(Context context) {
         super(context);
@@ -105,34 +100,25 @@ public class PredictionsDispatcher extends UserEventDispatcherExtension implemen
         mContext = context;
         mPrefs = Utilities.getPrefs(context);
         mPrefs.registerOnSharedPreferenceChangeListener(this);
-        mPackageManager = context.getPackageManager();
+        mEngine = PredictionEngine.getInstance(context);
+        if (!isPredictorEnabled()) {
+            mEngine.clear();
+        }
     }
 
     public List<ComponentKeyMapper> getPredictedApps() {
         List<ComponentKeyMapper> list = new ArrayList();
         if (isPredictorEnabled()) {
-            clearNonExistingComponents();
-            List<String> predictionList = new ArrayList(getStringSetCopy());
-            Collections.sort(predictionList, new Comparator<String>() {
-                @Override
-                public int compare(String o1, String o2) {
-                    return Integer.compare(getLaunchCount(o2), getLaunchCount(o1));
-                }
-            });
-
+            List<String> predictionList = mEngine.getSortedComponents();
             for (String prediction : predictionList) {
                 list.add(getComponentFromString(prediction));
             }
 
             if (list.size() < MAX_PREDICTIONS) {
-                for (String watchedApps : WATCHED_APPS) {
-                    Intent intent = mPackageManager.getLaunchIntentForPackage(watchedApps);
-                    if (intent != null) {
-                        ComponentName componentInfo = intent.getComponent();
-                        String prediction = componentInfo.getPackageName() + '/' + componentInfo.getClassName();
-                        if (!predictionList.contains(prediction)) {
-                            list.add(new ComponentKeyMapper(mContext, new ComponentKey(componentInfo, Process.myUserHandle())));
-                        }
+                for (ComponentName componentInfo : mEngine.getWatchedComponents()) {
+                    String prediction = componentInfo.getPackageName() + '/' + componentInfo.getClassName();
+                    if (!predictionList.contains(prediction)) {
+                        list.add(new ComponentKeyMapper(mContext, new ComponentKey(componentInfo, Process.myUserHandle())));
                     }
                 }
             }
@@ -149,48 +135,11 @@ public class PredictionsDispatcher extends UserEventDispatcherExtension implemen
     public void logAppLaunch(View view, Intent intent) {
         super.logAppLaunch(view, intent);
         if (isPredictorEnabled() && recursiveIsDrawer(view)) {
-            clearNonExistingComponents();
-
             ComponentName componentInfo = intent.getComponent();
-            String prediction = componentInfo.getPackageName() + '/' + componentInfo.getClassName();
-
-            Set<String> predictionSet = getStringSetCopy();
-            Editor edit = mPrefs.edit();
-
-            if (predictionSet.contains(prediction)) {
-                edit.putInt(PREDICTION_PREFIX + prediction, getLaunchCount(prediction) + BOOST_ON_OPEN);
-            } else if (predictionSet.size() < MAX_PREDICTIONS || decayHasSpotFree(predictionSet, edit)) {
-                predictionSet.add(prediction);
-            }
-
-            edit.putStringSet(PREDICTION_SET, predictionSet);
-            edit.apply();
+            mEngine.onAppLaunched(componentInfo.getPackageName() + '/' + componentInfo.getClassName());
         }
     }
 
-    private boolean decayHasSpotFree(Set<String> toDecay, Editor edit) {
-        boolean spotFree = false;
-        Set<String> toRemove = new HashSet<>();
-        for (String prediction : toDecay) {
-            int launchCount = getLaunchCount(prediction);
-            if (launchCount > 0) {
-                edit.putInt(PREDICTION_PREFIX + prediction, --launchCount);
-            } else if (!spotFree) {
-                edit.remove(PREDICTION_PREFIX + prediction);
-                toRemove.add(prediction);
-                spotFree = true;
-            }
-        }
-        for (String prediction : toRemove) {
-            toDecay.remove(prediction);
-        }
-        return spotFree;
-    }
-
-    private int getLaunchCount(String component) {
-        return mPrefs.getInt(PREDICTION_PREFIX + component, 0);
-    }
-
     private boolean recursiveIsDrawer(View view) {
         if (view != null) {
             ViewParent parent = view.getParent();
@@ -210,16 +159,8 @@ public class PredictionsDispatcher extends UserEventDispatcherExtension implemen
   
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (!isPredictorEnabled()) {
-            Set<String> predictionSet = getStringSetCopy();
-
-            Editor edit = mPrefs.edit();
-            for (String prediction : predictionSet) {
-                Log.i("Predictor", "Clearing " + prediction + " at " + getLaunchCount(prediction));
-                edit.remove(PREDICTION_PREFIX + prediction);
-            }
-            edit.putStringSet(PREDICTION_SET, EMPTY_SET);
-            edit.apply();
+        if (AppDrawer.KEY_APP_SUGGESTIONS.equals(key) && !isPredictorEnabled()) {
+            mEngine.clear();
         }
     }
 
@@ -227,27 +168,4 @@ public class PredictionsDispatcher extends UserEventDispatcherExtension implemen
         int index = str.indexOf('/');
         return new ComponentKeyMapper(mContext, new ComponentKey(new ComponentName(str.substring(0, index), str.substring(index + 1)), Process.myUserHandle()));
     }
-
-    private void clearNonExistingComponents() {
-        Set<String> originalSet = mPrefs.getStringSet(PREDICTION_SET, EMPTY_SET);
-        Set<String> predictionSet = new HashSet<>(originalSet);
-        Editor edit = mPrefs.edit();
-        for (String prediction : originalSet) {
-            try {
-                mPackageManager.getPackageInfo(prediction.substring(0, prediction.indexOf('/')), 0);
-            } catch (NameNotFoundException | NumberFormatException e) {
-                predictionSet.remove(prediction);
-                edit.remove(PREDICTION_PREFIX + prediction);
-            }
-        }
-        edit.putStringSet(PREDICTION_SET, predictionSet);
-        edit.apply();
-        Log.d(TAG, "Components cleared!");
-    }
-
-    private Set<String> getStringSetCopy() {
-        Set<String> set = new HashSet<>();
-        set.addAll(mPrefs.getStringSet(PREDICTION_SET, EMPTY_SET));
-        return set;
-    }
 }
@@ -38,6 +38,7 @@ import com.android.launcher3.shortcuts.ShortcutKey;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.MultiHashMap;
+import com.android.launcher3.util.TimingRecorder;
 import com.google.protobuf.nano.MessageNano;
 
 import java.io.FileDescriptor;
@@ -235,6 +236,7 @@ public class BgDataModel {
             for (int i = 0; i < targetList.size(); i++) {
                 proto.targets[i] = targetList.get(i);
             }
+            proto.timings = TimingRecorder.getInstance().toProto();
             FileOutputStream fos = new FileOutputStream(fd);
             try {
 
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.UserHandle;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.android.launcher3.FolderInfo;
+import com.android.launcher3.IconCache;
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.ShortcutInfo;
+import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.model.nano.WorkspaceSnapshotProto.SnapshotItem;
+import com.android.launcher3.model.nano.WorkspaceSnapshotProto.WorkspaceSnapshot;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.IOUtils;
+import com.google.protobuf.nano.MessageNano;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The first page and the hotseat as they were last bound, kept on disk so that they can be bound
+ * on process start before the favorites table is loaded. The loader then only applies the
+ * differences between the snapshot and the loaded workspace, see
+ * {@link com.android.launcher3.LauncherModel.Callbacks#bindFirstPageOverSnapshot}.
+ *
+ * Only apps and folders are part of the snapshot. Their icons are not stored, the low-res icons
+ * are read from the icon cache instead.
+ */
+public class FirstScreenSnapshot {
+
+    private static final String TAG = "FirstScreenSnapshot";
+
+    private static final int VERSION = 1;
+
+    // The snapshot is only meant for the first load of the process, later loads rebind a
+    // workspace which is already on screen.
+    private static final AtomicBoolean sRestored = new AtomicBoolean(false);
+
+    public final ArrayList<Long> screenIds;
+    public final int currentScreen;
+    public final ArrayList<ItemInfo> items;
+
+    private FirstScreenSnapshot(ArrayList<Long> screenIds, int currentScreen,
+            ArrayList<ItemInfo> items) {
+        this.screenIds = screenIds;
+        this.currentScreen = currentScreen;
+        this.items = items;
+    }
+
+    /**
+     * Returns true if the loaded workspace has the same pages as the snapshot, in which case
+     * the snapshot items can be updated in place instead of rebinding the workspace.
+     */
+    public boolean matches(List<Long> orderedScreenIds, int page) {
+        return page == currentScreen && orderedScreenIds.equals(screenIds);
+    }
+
+    /**
+     * Reads the snapshot saved by the previous process, or returns null if there is none, if it
+     * was already restored, or if it was taken for a different grid.
+     */
+    public static FirstScreenSnapshot restore(Context context, InvariantDeviceProfile idp,
+            IconCache iconCache) {
+        if (!sRestored.compareAndSet(false, true)) {
+            return null;
+        }
+        AtomicFile file = new AtomicFile(context.getFileStreamPath(
+                LauncherFiles.WORKSPACE_SNAPSHOT));
+        WorkspaceSnapshot proto;
+        try {
+            proto = WorkspaceSnapshot.parseFrom(IOUtils.toByteArray(file.getBaseFile()));
+        } catch (IOException e) {
+            // Either there is no snapshot yet or it is corrupt, in both cases load normally.
+            return null;
+        }
+        if (proto.version != VERSION || proto.numRows != idp.numRows
+                || proto.numColumns != idp.numColumns
+                || proto.numHotseatIcons != idp.numHotseatIcons
+                || proto.currentScreen >= proto.screenIds.length) {
+            return null;
+        }
+
+        ArrayList<Long> screenIds = new ArrayList<>(proto.screenIds.length);
+        for (long screenId : proto.screenIds) {
+            screenIds.add(screenId);
+        }
+
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        LongSparseArray<FolderInfo> folders = new LongSparseArray<>();
+        ArrayList<ShortcutInfo> apps = new ArrayList<>();
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        for (SnapshotItem item : proto.items) {
+            if (item.itemType == Favorites.ITEM_TYPE_FOLDER) {
+                FolderInfo folder = new FolderInfo();
+                readItem(item, folder);
+                folder.options = item.options;
+                folders.put(folder.id, folder);
+                items.add(folder);
+            } else {
+                UserHandle user = userManager.getUserForSerialNumber(item.userSerial);
+                if (user == null) {
+                    continue;
+                }
+                ShortcutInfo info = new ShortcutInfo();
+                readItem(item, info);
+                info.user = user;
+                try {
+                    info.intent = Intent.parseUri(item.intent, 0);
+                } catch (URISyntaxException e) {
+                    continue;
+                }
+                apps.add(info);
+            }
+        }
+
+        HashSet<ComponentKey> iconKeys = new HashSet<>();
+        for (ShortcutInfo info : apps) {
+            if (info.getTargetComponent() != null) {
+                iconKeys.add(new ComponentKey(info.getTargetComponent(), info.user));
+            }
+        }
+        iconCache.prefetch(iconKeys, true /* useLowResIcon */);
+
+        for (ShortcutInfo info : apps) {
+            CharSequence title = info.title;
+            iconCache.getTitleAndIcon(info, true /* useLowResIcon */);
+            info.title = title;
+            info.contentDescription = title;
+
+            if (info.container == Favorites.CONTAINER_DESKTOP
+                    || info.container == Favorites.CONTAINER_HOTSEAT) {
+                items.add(info);
+            } else {
+                FolderInfo folder = folders.get(info.container);
+                if (folder != null) {
+                    folder.add(info, false);
+                }
+            }
+        }
+        return new FirstScreenSnapshot(screenIds, proto.currentScreen, items);
+    }
+
+    /**
+     * Saves the items bound on {@param currentScreen} and in the hotseat, along with their
+     * folder contents, for the next process start.
+     */
+    public static void save(Context context, InvariantDeviceProfile idp,
+            List<Long> orderedScreenIds, int currentScreen, List<ItemInfo> firstScreenItems) {
+        AtomicFile file = new AtomicFile(context.getFileStreamPath(
+                LauncherFiles.WORKSPACE_SNAPSHOT));
+        if (currentScreen < 0 || currentScreen >= orderedScreenIds.size()) {
+            file.delete();
+            return;
+        }
+
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        ArrayList<SnapshotItem> items = new ArrayList<>();
+        for (ItemInfo info : firstScreenItems) {
+            if (info.itemType == Favorites.ITEM_TYPE_APPLICATION) {
+                items.add(writeApp((ShortcutInfo) info, userManager));
+            } else if (info.itemType == Favorites.ITEM_TYPE_FOLDER) {
+                FolderInfo folder = (FolderInfo) info;
+                SnapshotItem item = writeItem(folder);
+                item.options = folder.options;
+                items.add(item);
+                for (ShortcutInfo child : folder.contents) {
+                    if (child.itemType == Favorites.ITEM_TYPE_APPLICATION) {
+                        items.add(writeApp(child, userManager));
+                    }
+                }
+            }
+        }
+
+        WorkspaceSnapshot proto = new WorkspaceSnapshot();
+        proto.version = VERSION;
+        proto.numRows = idp.numRows;
+        proto.numColumns = idp.numColumns;
+        proto.numHotseatIcons = idp.numHotseatIcons;
+        proto.screenIds = new long[orderedScreenIds.size()];
+        for (int i = 0; i < proto.screenIds.length; i++) {
+            proto.screenIds[i] = orderedScreenIds.get(i);
+        }
+        proto.currentScreen = currentScreen;
+        proto.items = items.toArray(new SnapshotItem[items.size()]);
+
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            fos.write(MessageNano.toByteArray(proto));
+            file.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save workspace snapshot", e);
+            if (fos != null) {
+                file.failWrite(fos);
+            }
+        }
+    }
+
+    private static SnapshotItem writeApp(ShortcutInfo info, UserManagerCompat userManager) {
+        SnapshotItem item = writeItem(info);
+        item.intent = info.intent.toUri(0);
+        item.userSerial = userManager.getSerialNumberForUser(info.user);
+        return item;
+    }
+
+    private static SnapshotItem writeItem(ItemInfo info) {
+        SnapshotItem item = new SnapshotItem();
+        item.id = info.id;
+        item.itemType = info.itemType;
+        item.container = info.container;
+        item.screenId = info.screenId;
+        item.cellX = info.cellX;
+        item.cellY = info.cellY;
+        item.rank = info.rank;
+        item.title = info.title == null ? "" : info.title.toString();
+        return item;
+    }
+
+    private static void readItem(SnapshotItem item, ItemInfo info) {
+        info.id = item.id;
+        info.itemType = item.itemType;
+        info.container = item.container;
+        info.screenId = item.screenId;
+        info.cellX = item.cellX;
+        info.cellY = item.cellY;
+        info.rank = item.rank;
+        info.title = item.title;
+    }
+}
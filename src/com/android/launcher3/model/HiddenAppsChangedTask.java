@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.os.UserHandle;
+
+import com.android.launcher3.AllAppsList;
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.compat.UserManagerCompat;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Handles apps being hidden or unhidden from all apps, by removing or adding only the affected
+ * packages instead of reloading the whole model.
+ */
+public class HiddenAppsChangedTask extends BaseModelUpdateTask {
+
+    private final Set<String> mHiddenPackages;
+    private final Set<String> mUnhiddenPackages;
+
+    public HiddenAppsChangedTask(Set<String> hiddenPackages, Set<String> unhiddenPackages) {
+        mHiddenPackages = hiddenPackages;
+        mUnhiddenPackages = unhiddenPackages;
+    }
+
+    @Override
+    public void execute(LauncherAppState app, BgDataModel dataModel, AllAppsList appsList) {
+        Context context = app.getContext();
+        for (UserHandle user : UserManagerCompat.getInstance(context).getUserProfiles()) {
+            for (String packageName : mHiddenPackages) {
+                appsList.removePackage(packageName, user);
+            }
+            for (String packageName : mUnhiddenPackages) {
+                appsList.addPackage(context, packageName, user);
+            }
+        }
+
+        final ArrayList<AppInfo> addedApps = new ArrayList<>(appsList.added);
+        appsList.added.clear();
+        final ArrayList<AppInfo> removedApps = new ArrayList<>(appsList.removed);
+        appsList.removed.clear();
+
+        if (!addedApps.isEmpty()) {
+            scheduleCallbackTask((callbacks) -> callbacks.bindAppsAddedOrUpdated(addedApps));
+        }
+        if (!removedApps.isEmpty()) {
+            scheduleCallbackTask((callbacks) -> callbacks.bindAppInfosRemoved(removedApps));
+        }
+    }
+}
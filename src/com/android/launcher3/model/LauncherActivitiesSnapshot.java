@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.pm.LauncherActivityInfo;
+import android.os.UserHandle;
+
+import com.android.launcher3.compat.LauncherAppsCompat;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.PackageUserKey;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The launcher activities of all the profiles, fetched once when loading the workspace.
+ *
+ * Workspace items are checked against this snapshot instead of querying the package manager for
+ * every item. Packages and components which are not part of it, like packages without a launcher
+ * activity, are checked through {@link LauncherAppsCompat} and the answer is kept for the rest of
+ * the load.
+ */
+class LauncherActivitiesSnapshot {
+
+    private final LauncherAppsCompat mLauncherApps;
+
+    private final HashMap<ComponentKey, LauncherActivityInfo> mActivities = new HashMap<>();
+    private final HashMap<PackageUserKey, Boolean> mEnabledPackages = new HashMap<>();
+    private final HashMap<ComponentKey, Boolean> mEnabledActivities = new HashMap<>();
+
+    LauncherActivitiesSnapshot(LauncherAppsCompat launcherApps, List<UserHandle> profiles) {
+        mLauncherApps = launcherApps;
+        for (UserHandle user : profiles) {
+            List<LauncherActivityInfo> activities = launcherApps.getActivityList(null, user);
+            if (activities == null) {
+                continue;
+            }
+            for (LauncherActivityInfo info : activities) {
+                ComponentName cn = info.getComponentName();
+                mActivities.put(new ComponentKey(cn, user), info);
+                mEnabledPackages.put(new PackageUserKey(cn.getPackageName(), user), true);
+            }
+        }
+    }
+
+    /**
+     * @see LauncherAppsCompat#isPackageEnabledForProfile(String, UserHandle)
+     */
+    boolean isPackageEnabledForProfile(String packageName, UserHandle user) {
+        PackageUserKey key = new PackageUserKey(packageName, user);
+        Boolean enabled = mEnabledPackages.get(key);
+        if (enabled == null) {
+            enabled = mLauncherApps.isPackageEnabledForProfile(packageName, user);
+            mEnabledPackages.put(key, enabled);
+        }
+        return enabled;
+    }
+
+    /**
+     * @see LauncherAppsCompat#isActivityEnabledForProfile(ComponentName, UserHandle)
+     */
+    boolean isActivityEnabledForProfile(ComponentName component, UserHandle user) {
+        ComponentKey key = new ComponentKey(component, user);
+        if (mActivities.containsKey(key)) {
+            return true;
+        }
+        Boolean enabled = mEnabledActivities.get(key);
+        if (enabled == null) {
+            enabled = mLauncherApps.isActivityEnabledForProfile(component, user);
+            mEnabledActivities.put(key, enabled);
+        }
+        return enabled;
+    }
+
+    /**
+     * Returns the launcher activity for {@param intent}, which is expected to be a main intent
+     * for a specific component.
+     * @see LauncherAppsCompat#resolveActivity(Intent, UserHandle)
+     */
+    LauncherActivityInfo resolveActivity(Intent intent, UserHandle user) {
+        LauncherActivityInfo info = mActivities.get(new ComponentKey(intent.getComponent(), user));
+        return info != null ? info : mLauncherApps.resolveActivity(intent, user);
+    }
+}
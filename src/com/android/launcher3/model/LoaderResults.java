@@ -34,6 +34,7 @@ import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.LooperIdleLock;
 import com.android.launcher3.util.MultiHashMap;
+import com.android.launcher3.util.TimingRecorder;
 import com.android.launcher3.util.ViewOnDrawExecutor;
 import com.android.launcher3.widget.WidgetListRowEntry;
 
@@ -64,6 +65,14 @@ public class LoaderResults {
 
     private final WeakReference<Callbacks> mCallbacks;
 
+    // The snapshot bound before the workspace was loaded, if any.
+    private FirstScreenSnapshot mBoundSnapshot;
+
+    // The page bound by the last call to bindWorkspace, saved as the next snapshot.
+    private ArrayList<Long> mBoundScreenIds;
+    private int mBoundScreen = PagedView.INVALID_RESTORE_PAGE;
+    private ArrayList<ItemInfo> mBoundFirstScreenItems;
+
     public LoaderResults(LauncherAppState app, BgDataModel dataModel,
             AllAppsList allAppsList, int pageToBindFirst, WeakReference<Callbacks> callbacks) {
         mUiExecutor = new MainThreadExecutor();
@@ -74,6 +83,58 @@ public class LoaderResults {
         mCallbacks = callbacks == null ? new WeakReference<Callbacks>(null) : callbacks;
     }
 
+    /**
+     * Binds the first page and the hotseat from {@param snapshot} before the workspace is loaded.
+     * The page is only bound if it is the page which is going to be bound first.
+     */
+    public void bindSnapshot(FirstScreenSnapshot snapshot) {
+        Callbacks callbacks = mCallbacks.get();
+        if (callbacks == null) {
+            return;
+        }
+        int currentScreen = mPageToBindFirst != PagedView.INVALID_RESTORE_PAGE
+                ? mPageToBindFirst : callbacks.getCurrentWorkspaceScreen();
+        if (currentScreen != snapshot.currentScreen) {
+            return;
+        }
+        mBoundSnapshot = snapshot;
+
+        final ArrayList<Long> orderedScreenIds = new ArrayList<>(snapshot.screenIds);
+        sortWorkspaceItemsSpatially(snapshot.items);
+        mUiExecutor.execute(timed("start binding snapshot", new Runnable() {
+            @Override
+            public void run() {
+                Callbacks callbacks = mCallbacks.get();
+                if (callbacks != null) {
+                    callbacks.clearPendingBinds();
+                    callbacks.startBinding();
+                    callbacks.bindScreens(orderedScreenIds);
+                }
+            }
+        }));
+        bindWorkspaceItems(snapshot.items, new ArrayList<LauncherAppWidgetInfo>(), mUiExecutor);
+        mUiExecutor.execute(timed("finish binding snapshot", new Runnable() {
+            @Override
+            public void run() {
+                Callbacks callbacks = mCallbacks.get();
+                if (callbacks != null) {
+                    callbacks.finishFirstPageBind(null);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Saves the page bound by the last call to {@link #bindWorkspace} as the snapshot for the
+     * next process start.
+     */
+    public void saveSnapshot() {
+        if (mBoundScreenIds != null) {
+            FirstScreenSnapshot.save(mApp.getContext(), mApp.getInvariantDeviceProfile(),
+                    mBoundScreenIds, mBoundScreen, mBoundFirstScreenItems);
+        }
+    }
+
     /**
      * Binds all loaded data to actual views on the main thread.
      */
@@ -128,32 +189,54 @@ public class LoaderResults {
         sortWorkspaceItemsSpatially(currentWorkspaceItems);
         sortWorkspaceItemsSpatially(otherWorkspaceItems);
 
-        // Tell the workspace that we're about to start binding items
-        r = new Runnable() {
-            public void run() {
-                Callbacks callbacks = mCallbacks.get();
-                if (callbacks != null) {
-                    callbacks.clearPendingBinds();
-                    callbacks.startBinding();
+        mBoundScreenIds = new ArrayList<>(orderedScreenIds);
+        mBoundScreen = currentScreen;
+        mBoundFirstScreenItems = new ArrayList<>(currentWorkspaceItems);
+
+        Executor mainExecutor = mUiExecutor;
+        if (mBoundSnapshot != null && mBoundSnapshot.matches(orderedScreenIds, currentScreen)) {
+            // The snapshot already bound the same pages, only replace its items on the current
+            // page with the loaded ones.
+            final ArrayList<ItemInfo> firstPageItems = new ArrayList<>(currentWorkspaceItems);
+            firstPageItems.addAll(currentAppWidgets);
+            mUiExecutor.execute(timed("bind first page over snapshot", new Runnable() {
+                @Override
+                public void run() {
+                    Callbacks callbacks = mCallbacks.get();
+                    if (callbacks != null) {
+                        callbacks.clearPendingBinds();
+                        callbacks.bindFirstPageOverSnapshot(firstPageItems);
+                    }
                 }
-            }
-        };
-        mUiExecutor.execute(r);
+            }));
+        } else {
+            // Tell the workspace that we're about to start binding items
+            r = new Runnable() {
+                public void run() {
+                    Callbacks callbacks = mCallbacks.get();
+                    if (callbacks != null) {
+                        callbacks.clearPendingBinds();
+                        callbacks.startBinding();
+                    }
+                }
+            };
+            mUiExecutor.execute(timed("start binding", r));
 
-        // Bind workspace screens
-        mUiExecutor.execute(new Runnable() {
-            @Override
-            public void run() {
-                Callbacks callbacks = mCallbacks.get();
-                if (callbacks != null) {
-                    callbacks.bindScreens(orderedScreenIds);
+            // Bind workspace screens
+            mUiExecutor.execute(timed("bind screens", new Runnable() {
+                @Override
+                public void run() {
+                    Callbacks callbacks = mCallbacks.get();
+                    if (callbacks != null) {
+                        callbacks.bindScreens(orderedScreenIds);
+                    }
                 }
-            }
-        });
+            }));
 
-        Executor mainExecutor = mUiExecutor;
-        // Load items on the current page.
-        bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, mainExecutor);
+            // Load items on the current page.
+            bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, mainExecutor);
+        }
+        mBoundSnapshot = null;
 
         // In case of validFirstPage, only bind the first screen, and defer binding the
         // remaining screens after first onDraw (and an optional the fade animation whichever
@@ -163,7 +246,7 @@ public class LoaderResults {
         final Executor deferredExecutor =
                 validFirstPage ? new ViewOnDrawExecutor() : mainExecutor;
 
-        mainExecutor.execute(new Runnable() {
+        mainExecutor.execute(timed("finish first page bind", new Runnable() {
             @Override
             public void run() {
                 Callbacks callbacks = mCallbacks.get();
@@ -172,7 +255,7 @@ public class LoaderResults {
                             validFirstPage ? (ViewOnDrawExecutor) deferredExecutor : null);
                 }
             }
-        });
+        }));
 
         bindWorkspaceItems(otherWorkspaceItems, otherAppWidgets, deferredExecutor);
 
@@ -185,7 +268,7 @@ public class LoaderResults {
                 }
             }
         };
-        deferredExecutor.execute(r);
+        deferredExecutor.execute(timed("finish binding items", r));
 
         if (validFirstPage) {
             r = new Runnable() {
@@ -310,7 +393,7 @@ public class LoaderResults {
                     }
                 }
             };
-            executor.execute(r);
+            executor.execute(timed("bind items", r));
         }
 
         // Bind the widgets, one at a time
@@ -325,7 +408,7 @@ public class LoaderResults {
                     }
                 }
             };
-            executor.execute(r);
+            executor.execute(timed("bind widget", r));
         }
     }
 
@@ -343,7 +426,7 @@ public class LoaderResults {
                 }
             }
         };
-        mUiExecutor.execute(r);
+        mUiExecutor.execute(timed("bind deep shortcuts", r));
     }
 
     public void bindAllApps() {
@@ -359,7 +442,7 @@ public class LoaderResults {
                 }
             }
         };
-        mUiExecutor.execute(r);
+        mUiExecutor.execute(timed("bind all apps", r));
     }
 
     public void bindWidgets() {
@@ -373,7 +456,14 @@ public class LoaderResults {
                 }
             }
         };
-        mUiExecutor.execute(r);
+        mUiExecutor.execute(timed("bind all widgets", r));
+    }
+
+    /**
+     * Records how long {@param r} takes to run on the main thread in the {@link TimingRecorder}.
+     */
+    private static Runnable timed(String partition, Runnable r) {
+        return TimingRecorder.getInstance().timed(TimingRecorder.SECTION_BIND, partition, r);
     }
 
     public LooperIdleLock newIdleLock(Object lock) {
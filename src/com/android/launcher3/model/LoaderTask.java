@@ -66,10 +66,13 @@ import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.LooperIdleLock;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageManagerHelper;
 import com.android.launcher3.util.Provider;
+import com.android.launcher3.util.TimingRecorder;
+import com.android.launcher3.util.TimingRecorder.StepTimer;
 import com.android.launcher3.util.TraceHelper;
 
 import java.util.ArrayList;
@@ -79,6 +82,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Runnable for the thread that loads the contents of the launcher:
@@ -107,6 +111,10 @@ public class LoaderTask implements Runnable {
 
     private boolean mStopped;
 
+    // Whether a load completed in this process, the first one being recorded as a cold start.
+    private static final AtomicBoolean sLoadCompleted = new AtomicBoolean();
+    private final StepTimer mStepTimer = new StepTimer(TimingRecorder.SECTION_LOADER);
+
     public LoaderTask(LauncherAppState app, AllAppsList bgAllAppsList, BgDataModel dataModel,
             LoaderResults results) {
         mApp = app;
@@ -154,6 +162,11 @@ public class LoaderTask implements Runnable {
         mFirstScreenBroadcast.sendBroadcasts(mApp.getContext(), firstScreenItems);
     }
 
+    private void partitionSection(String partition) {
+        TraceHelper.partitionSection(TAG, partition);
+        mStepTimer.startStep(partition);
+    }
+
     public void run() {
         synchronized (this) {
             // Skip fast if we are already stopped.
@@ -164,64 +177,77 @@ public class LoaderTask implements Runnable {
 
         TraceHelper.beginSection(TAG);
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
-            TraceHelper.partitionSection(TAG, "step 1.1: loading workspace");
+            partitionSection("step 1.0: bind workspace snapshot");
+            FirstScreenSnapshot snapshot = FirstScreenSnapshot.restore(mApp.getContext(),
+                    mApp.getInvariantDeviceProfile(), mIconCache);
+            if (snapshot != null) {
+                mResults.bindSnapshot(snapshot);
+            }
+
+            verifyNotStopped();
+            partitionSection("step 1.1: loading workspace");
             loadWorkspace();
 
             verifyNotStopped();
-            TraceHelper.partitionSection(TAG, "step 1.2: bind workspace workspace");
+            partitionSection("step 1.2: bind workspace workspace");
             mResults.bindWorkspace();
 
             // Notify the installer packages of packages with active installs on the first screen.
-            TraceHelper.partitionSection(TAG, "step 1.3: send first screen broadcast");
+            partitionSection("step 1.3: send first screen broadcast");
             sendFirstScreenActiveInstallsBroadcast();
 
+            partitionSection("step 1.4: save workspace snapshot");
+            mResults.saveSnapshot();
+
             // Take a break
-            TraceHelper.partitionSection(TAG, "step 1 completed, wait for idle");
+            partitionSection("step 1 completed, wait for idle");
             waitForIdle();
             verifyNotStopped();
 
             // second step
-            TraceHelper.partitionSection(TAG, "step 2.1: loading all apps");
+            partitionSection("step 2.1: loading all apps");
             loadAllApps();
 
-            TraceHelper.partitionSection(TAG, "step 2.2: Binding all apps");
+            partitionSection("step 2.2: Binding all apps");
             verifyNotStopped();
             mResults.bindAllApps();
 
             verifyNotStopped();
-            TraceHelper.partitionSection(TAG, "step 2.3: Update icon cache");
+            partitionSection("step 2.3: Update icon cache");
             updateIconCache();
 
             // Take a break
-            TraceHelper.partitionSection(TAG, "step 2 completed, wait for idle");
+            partitionSection("step 2 completed, wait for idle");
             waitForIdle();
             verifyNotStopped();
 
             // third step
-            TraceHelper.partitionSection(TAG, "step 3.1: loading deep shortcuts");
+            partitionSection("step 3.1: loading deep shortcuts");
             loadDeepShortcuts();
 
             verifyNotStopped();
-            TraceHelper.partitionSection(TAG, "step 3.2: bind deep shortcuts");
+            partitionSection("step 3.2: bind deep shortcuts");
             mResults.bindDeepShortcuts();
 
             // Take a break
-            TraceHelper.partitionSection(TAG, "step 3 completed, wait for idle");
+            partitionSection("step 3 completed, wait for idle");
             waitForIdle();
             verifyNotStopped();
 
             // fourth step
-            TraceHelper.partitionSection(TAG, "step 4.1: loading widgets");
+            partitionSection("step 4.1: loading widgets");
             mBgDataModel.widgetsModel.update(mApp, null);
 
             verifyNotStopped();
-            TraceHelper.partitionSection(TAG, "step 4.2: Binding widgets");
+            partitionSection("step 4.2: Binding widgets");
             mResults.bindWidgets();
 
             transaction.commit();
+            mStepTimer.finish(sLoadCompleted.getAndSet(true) ? "total" : "total cold start");
         } catch (CancellationException e) {
             // Loader stopped, ignore
             TraceHelper.partitionSection(TAG, "Cancelled");
+            mStepTimer.cancel();
         }
         TraceHelper.endSection(TAG);
     }
@@ -271,9 +297,15 @@ public class LoaderTask implements Runnable {
             mFirstScreenBroadcast = new FirstScreenBroadcast(installingPkgs);
             mBgDataModel.workspaceScreens.addAll(LauncherModel.loadWorkspaceScreensDb(context));
 
+            partitionSection("step 1.1.1: loading launcher activities");
+            final LauncherActivitiesSnapshot activities = new LauncherActivitiesSnapshot(
+                    mLauncherApps, mUserManager.getUserProfiles());
+
+            partitionSection("step 1.1.2: loading workspace items");
             Map<ShortcutKey, ShortcutInfoCompat> shortcutKeyToPinnedShortcuts = new HashMap<>();
             final LoaderCursor c = new LoaderCursor(contentResolver.query(
-                    LauncherSettings.Favorites.CONTENT_URI, null, null, null, null), mApp);
+                    LauncherSettings.Favorites.CONTENT_URI, null, null, null, null), mApp,
+                    activities);
 
             HashMap<ComponentKey, AppWidgetProviderInfo> widgetProvidersMap = null;
 
@@ -327,6 +359,8 @@ public class LoaderTask implements Runnable {
 
                 FolderIconPreviewVerifier verifier =
                         new FolderIconPreviewVerifier(mApp.getInvariantDeviceProfile());
+                LongArrayMap<Intent> parsedIntents =
+                        prefetchWorkspaceIcons(c, verifier, rankIndex);
                 while (!mStopped && c.moveToNext()) {
                     try {
                         if (c.user == null) {
@@ -340,7 +374,10 @@ public class LoaderTask implements Runnable {
                         case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
                         case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
                         case LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT:
-                            intent = c.parseIntent();
+                            intent = parsedIntents.get(c.id);
+                            if (intent == null) {
+                                intent = c.parseIntent();
+                            }
                             if (intent == null) {
                                 c.markDeleted("Invalid or null intent");
                                 continue;
@@ -370,14 +407,14 @@ public class LoaderTask implements Runnable {
                             // If there is no target package, its an implicit intent
                             // (legacy shortcut) which is always valid
                             boolean validTarget = TextUtils.isEmpty(targetPkg) ||
-                                    mLauncherApps.isPackageEnabledForProfile(targetPkg, c.user);
+                                    activities.isPackageEnabledForProfile(targetPkg, c.user);
 
                             if (cn != null && validTarget) {
                                 // If the apk is present and the shortcut points to a specific
                                 // component.
 
                                 // If the component is already present
-                                if (mLauncherApps.isActivityEnabledForProfile(cn, c.user)) {
+                                if (activities.isActivityEnabledForProfile(cn, c.user)) {
                                     // no special handling necessary for this item
                                     c.markRestored();
                                 } else {
@@ -807,6 +844,55 @@ public class LoaderTask implements Runnable {
         mIconCache.updateDbIcons(packagesToIgnore);
     }
 
+    /**
+     * Starts loading the icons of the apps on the workspace in bulk, the ones in the hotseat and
+     * on the first screen first, so that most of them are decoded by the time they are needed.
+     * Folder items outside of the folder preview are loaded in low resolution, like
+     * {@link #loadWorkspace()} does.
+     *
+     * @return the intents parsed along the way, by item id.
+     */
+    private LongArrayMap<Intent> prefetchWorkspaceIcons(LoaderCursor c,
+            FolderIconPreviewVerifier verifier, int rankIndex) {
+        final long firstScreen = mBgDataModel.workspaceScreens.isEmpty()
+                ? -1 : mBgDataModel.workspaceScreens.get(0);
+        final int screenIndex = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN);
+        final ArrayList<ComponentKey> firstScreenKeys = new ArrayList<>();
+        final ArrayList<ComponentKey> otherKeys = new ArrayList<>();
+        final ArrayList<ComponentKey> lowResKeys = new ArrayList<>();
+        final LongArrayMap<Intent> parsedIntents = new LongArrayMap<>();
+        while (c.moveToNext()) {
+            if (c.user == null
+                    || c.itemType != LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                continue;
+            }
+            Intent intent = c.parseIntent();
+            if (intent == null) {
+                continue;
+            }
+            parsedIntents.put(c.id, intent);
+            if (intent.getComponent() == null) {
+                continue;
+            }
+            ComponentKey key = new ComponentKey(intent.getComponent(), c.user);
+            if (!c.isOnWorkspaceOrHotseat() && !verifier.isItemInPreview(c.getInt(rankIndex))) {
+                lowResKeys.add(key);
+            } else if (c.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT
+                    || (c.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                            && c.getLong(screenIndex) == firstScreen)) {
+                firstScreenKeys.add(key);
+            } else {
+                otherKeys.add(key);
+            }
+        }
+        c.moveToPosition(-1);
+
+        mIconCache.prefetch(firstScreenKeys, false /* useLowResIcon */);
+        mIconCache.prefetch(otherKeys, false /* useLowResIcon */);
+        mIconCache.prefetch(lowResKeys, true /* useLowResIcon */);
+        return parsedIntents;
+    }
+
     private void loadAllApps() {
         final List<UserHandle> profiles = mUserManager.getUserProfiles();
 
@@ -821,6 +907,14 @@ public class LoaderTask implements Runnable {
                 return;
             }
             boolean quietMode = mUserManager.isQuietModeEnabled(user);
+
+            // Read the icons in bulk, they get decoded while the list is being built.
+            ArrayList<ComponentKey> keys = new ArrayList<>(apps.size());
+            for (int i = 0; i < apps.size(); i++) {
+                keys.add(new ComponentKey(apps.get(i).getComponentName(), user));
+            }
+            mIconCache.prefetch(keys, true /* useLowResIcon */);
+
             // Create the ApplicationInfos
             for (int i = 0; i < apps.size(); i++) {
                 LauncherActivityInfo app = apps.get(i);
@@ -10,8 +10,7 @@ import com.android.launcher3.LauncherAppWidgetProviderInfo;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
 import com.android.launcher3.util.ComponentKey;
-
-import java.text.Collator;
+import com.android.launcher3.util.LabelKey;
 
 /**
  * An wrapper over various items displayed in a widget picker,
@@ -21,7 +20,6 @@ import java.text.Collator;
 public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
 
     private static UserHandle sMyUserHandle;
-    private static Collator sCollator;
 
     public final LauncherAppWidgetProviderInfo widgetInfo;
     public final ShortcutConfigActivityInfo activityInfo;
@@ -29,6 +27,8 @@ public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
     public final String label;
     public final int spanX, spanY;
 
+    private LabelKey mLabelKey;
+
     public WidgetItem(LauncherAppWidgetProviderInfo info, PackageManager pm,
             InvariantDeviceProfile idp) {
         super(info.provider, info.getProfile());
@@ -54,7 +54,6 @@ public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
         if (sMyUserHandle == null) {
             // Delay these object creation until required.
             sMyUserHandle = Process.myUserHandle();
-            sCollator = Collator.getInstance();
         }
 
         // Independent of how the labels compare, if only one of the two widget info belongs to
@@ -65,7 +64,7 @@ public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
             return thisWorkProfile ? 1 : -1;
         }
 
-        int labelCompare = sCollator.compare(label, another.label);
+        int labelCompare = getLabelKey().compareTo(another.getLabelKey());
         if (labelCompare != 0) {
             return labelCompare;
         }
@@ -78,4 +77,13 @@ public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
                 ? Integer.compare(spanY, another.spanY)
                 : Integer.compare(thisArea, otherArea);
     }
+
+    /**
+     * Returns the key to sort this item by its label.
+     */
+    public LabelKey getLabelKey() {
+        LabelKey key = LabelKey.get(mLabelKey, label);
+        mLabelKey = key;
+        return key;
+    }
 }
@@ -25,22 +25,25 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Parcel;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
-import android.util.Pair;
+import android.view.Choreographer;
 
 import com.android.launcher3.LauncherModel;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.SettingsObserver;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -59,6 +62,10 @@ public class NotificationListener extends NotificationListenerService {
     private static final int MSG_NOTIFICATION_POSTED = 1;
     private static final int MSG_NOTIFICATION_REMOVED = 2;
     private static final int MSG_NOTIFICATION_FULL_REFRESH = 3;
+    private static final int MSG_SCHEDULE_FLUSH = 4;
+
+    // Number of bursts kept for the dump.
+    private static final int MAX_RECENT_BURSTS = 10;
 
     private static NotificationListener sNotificationListenerInstance = null;
     private static NotificationsChangedListener sNotificationsChangedListener;
@@ -73,22 +80,44 @@ public class NotificationListener extends NotificationListenerService {
     private final Map<String, NotificationGroup> mNotificationGroupMap = new HashMap<>();
     /** Maps keys to their corresponding current group key */
     private final Map<String, String> mNotificationGroupKeyMap = new HashMap<>();
+    /**
+     * Maps the keys of the last ranking update to their override group key, which is the part
+     * of the group key that can change without the notification being posted again.
+     */
+    private HashMap<String, String> mRankedOverrideGroupKeys = new HashMap<>();
+    private final RankingFetchStats mRankingFetchStats = new RankingFetchStats();
 
     /** The last notification key that was dismissed from launcher UI */
     private String mLastKeyDismissedByLauncher;
 
     private SettingsObserver mNotificationBadgingObserver;
 
+    // Updates received on the worker thread since the last flush, only the last update of each
+    // notification is kept as it replaces the previous ones. Guarded by mPendingUpdates.
+    private final LinkedHashMap<String, NotificationUpdate> mPendingUpdates =
+            new LinkedHashMap<>();
+    private final ArraySet<PackageUserKey> mPendingPackages = new ArraySet<>();
+    private List<StatusBarNotification> mPendingFullRefresh;
+    private int mPendingUpdateCount;
+    private boolean mFlushScheduled;
+    private final BurstStats mBurstStats = new BurstStats();
+
     private final Handler.Callback mWorkerCallback = new Handler.Callback() {
         @Override
         public boolean handleMessage(Message message) {
             switch (message.what) {
                 case MSG_NOTIFICATION_POSTED:
-                    mUiHandler.obtainMessage(message.what, message.obj).sendToTarget();
-                    break;
-                case MSG_NOTIFICATION_REMOVED:
-                    mUiHandler.obtainMessage(message.what, message.obj).sendToTarget();
+                case MSG_NOTIFICATION_REMOVED: {
+                    NotificationUpdate update = (NotificationUpdate) message.obj;
+                    synchronized (mPendingUpdates) {
+                        mPendingUpdates.remove(update.notificationKey.notificationKey);
+                        mPendingUpdates.put(update.notificationKey.notificationKey, update);
+                        mPendingPackages.add(update.packageUserKey);
+                        mPendingUpdateCount++;
+                        scheduleFlushLocked();
+                    }
                     break;
+                }
                 case MSG_NOTIFICATION_FULL_REFRESH:
                     List<StatusBarNotification> activeNotifications;
                     if (sIsConnected) {
@@ -103,7 +132,13 @@ public class NotificationListener extends NotificationListenerService {
                         activeNotifications = new ArrayList<StatusBarNotification>();
                     }
 
-                    mUiHandler.obtainMessage(message.what, activeNotifications).sendToTarget();
+                    synchronized (mPendingUpdates) {
+                        // The active notifications include the updates received before.
+                        mPendingFullRefresh = activeNotifications;
+                        mPendingUpdates.clear();
+                        mPendingPackages.clear();
+                        scheduleFlushLocked();
+                    }
                     break;
             }
             return true;
@@ -114,31 +149,59 @@ public class NotificationListener extends NotificationListenerService {
         @Override
         public boolean handleMessage(Message message) {
             switch (message.what) {
-                case MSG_NOTIFICATION_POSTED:
-                    if (sNotificationsChangedListener != null) {
-                        NotificationPostedMsg msg = (NotificationPostedMsg) message.obj;
-                        sNotificationsChangedListener.onNotificationPosted(msg.packageUserKey,
-                                msg.notificationKey, msg.shouldBeFilteredOut);
-                    }
-                    break;
-                case MSG_NOTIFICATION_REMOVED:
-                    if (sNotificationsChangedListener != null) {
-                        Pair<PackageUserKey, NotificationKeyData> pair
-                                = (Pair<PackageUserKey, NotificationKeyData>) message.obj;
-                        sNotificationsChangedListener.onNotificationRemoved(pair.first, pair.second);
-                    }
-                    break;
-                case MSG_NOTIFICATION_FULL_REFRESH:
-                    if (sNotificationsChangedListener != null) {
-                        sNotificationsChangedListener.onNotificationFullRefresh(
-                                (List<StatusBarNotification>) message.obj);
-                    }
+                case MSG_SCHEDULE_FLUSH:
+                    Choreographer.getInstance().postFrameCallback(mFlushCallback);
                     break;
             }
             return true;
         }
     };
 
+    /**
+     * Delivers the updates received since the last frame to the listener at once, so that a
+     * burst of notifications only updates the badges once per frame.
+     */
+    private final Choreographer.FrameCallback mFlushCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            List<StatusBarNotification> fullRefresh;
+            ArrayList<NotificationUpdate> updates;
+            int updateCount;
+            int packageCount;
+            synchronized (mPendingUpdates) {
+                fullRefresh = mPendingFullRefresh;
+                updates = new ArrayList<>(mPendingUpdates.values());
+                updateCount = mPendingUpdateCount;
+                packageCount = mPendingPackages.size();
+                mPendingFullRefresh = null;
+                mPendingUpdates.clear();
+                mPendingPackages.clear();
+                mPendingUpdateCount = 0;
+                mFlushScheduled = false;
+            }
+            mBurstStats.onFlush(updateCount, updates.size(), packageCount);
+
+            NotificationsChangedListener listener = sNotificationsChangedListener;
+            if (listener == null) {
+                return;
+            }
+            if (fullRefresh != null) {
+                listener.onNotificationFullRefresh(fullRefresh);
+            }
+            for (NotificationUpdate update : updates) {
+                if (update.removed) {
+                    listener.onNotificationRemoved(update.packageUserKey, update.notificationKey);
+                } else {
+                    listener.onNotificationPosted(update.packageUserKey, update.notificationKey,
+                            update.shouldBeFilteredOut);
+                }
+            }
+            if (!updates.isEmpty()) {
+                listener.onNotificationBatchEnd();
+            }
+        }
+    };
+
     public NotificationListener() {
         super();
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper(), mWorkerCallback);
@@ -211,6 +274,13 @@ public class NotificationListener extends NotificationListenerService {
         mWorkerHandler.obtainMessage(MSG_NOTIFICATION_FULL_REFRESH).sendToTarget();
     }
 
+    private void scheduleFlushLocked() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mUiHandler.sendEmptyMessage(MSG_SCHEDULE_FLUSH);
+        }
+    }
+
     @Override
     public void onListenerDisconnected() {
         super.onListenerDisconnected();
@@ -225,25 +295,28 @@ public class NotificationListener extends NotificationListenerService {
             // There is a bug in platform where we can get a null notification; just ignore it.
             return;
         }
-        mWorkerHandler.obtainMessage(MSG_NOTIFICATION_POSTED, new NotificationPostedMsg(sbn))
-            .sendToTarget();
+        mWorkerHandler.obtainMessage(MSG_NOTIFICATION_POSTED,
+                new NotificationUpdate(sbn, false /* removed */)).sendToTarget();
         if (sStatusBarNotificationsChangedListener != null) {
             sStatusBarNotificationsChangedListener.onNotificationPosted(sbn);
         }
     }
 
     /**
-     * An object containing data to send to MSG_NOTIFICATION_POSTED targets.
+     * An object containing data to send to MSG_NOTIFICATION_POSTED and MSG_NOTIFICATION_REMOVED
+     * targets.
      */
-    private class NotificationPostedMsg {
+    private class NotificationUpdate {
         final PackageUserKey packageUserKey;
         final NotificationKeyData notificationKey;
+        final boolean removed;
         final boolean shouldBeFilteredOut;
 
-        NotificationPostedMsg(StatusBarNotification sbn) {
+        NotificationUpdate(StatusBarNotification sbn, boolean removed) {
             packageUserKey = PackageUserKey.fromNotification(sbn);
             notificationKey = NotificationKeyData.fromNotification(sbn);
-            shouldBeFilteredOut = shouldBeFilteredOut(sbn);
+            this.removed = removed;
+            shouldBeFilteredOut = !removed && shouldBeFilteredOut(sbn);
         }
     }
 
@@ -254,11 +327,8 @@ public class NotificationListener extends NotificationListenerService {
             // There is a bug in platform where we can get a null notification; just ignore it.
             return;
         }
-        Pair<PackageUserKey, NotificationKeyData> packageUserKeyAndNotificationKey
-            = new Pair<>(PackageUserKey.fromNotification(sbn),
-            NotificationKeyData.fromNotification(sbn));
-        mWorkerHandler.obtainMessage(MSG_NOTIFICATION_REMOVED, packageUserKeyAndNotificationKey)
-            .sendToTarget();
+        mWorkerHandler.obtainMessage(MSG_NOTIFICATION_REMOVED,
+                new NotificationUpdate(sbn, true /* removed */)).sendToTarget();
         if (sStatusBarNotificationsChangedListener != null) {
             sStatusBarNotificationsChangedListener.onNotificationRemoved(sbn);
         }
@@ -288,10 +358,30 @@ public class NotificationListener extends NotificationListenerService {
     @Override
     public void onNotificationRankingUpdate(RankingMap rankingMap) {
         super.onNotificationRankingUpdate(rankingMap);
+        // Only fetch the notifications which are new or whose group may have changed, instead of
+        // marshalling all the active notifications on every ranking update.
         String[] keys = rankingMap.getOrderedKeys();
-        for (StatusBarNotification sbn : getActiveNotifications(keys)) {
-            updateGroupKeyIfNecessary(sbn);
+        HashMap<String, String> overrideGroupKeys = new HashMap<>(keys.length);
+        ArrayList<String> changedKeys = new ArrayList<>();
+        for (String key : keys) {
+            String overrideGroupKey = rankingMap.getRanking(key, mTempRanking)
+                    ? mTempRanking.getOverrideGroupKey() : null;
+            overrideGroupKeys.put(key, overrideGroupKey);
+            if (!mRankedOverrideGroupKeys.containsKey(key) || !TextUtils.equals(overrideGroupKey,
+                    mRankedOverrideGroupKeys.get(key))) {
+                changedKeys.add(key);
+            }
+        }
+        mRankedOverrideGroupKeys = overrideGroupKeys;
+
+        StatusBarNotification[] notifications = changedKeys.isEmpty() ? null
+                : getActiveNotifications(changedKeys.toArray(new String[changedKeys.size()]));
+        if (notifications != null) {
+            for (StatusBarNotification sbn : notifications) {
+                updateGroupKeyIfNecessary(sbn);
+            }
         }
+        mRankingFetchStats.onRankingUpdate(keys.length, notifications);
     }
 
     private void updateGroupKeyIfNecessary(StatusBarNotification sbn) {
@@ -384,12 +474,111 @@ public class NotificationListener extends NotificationListenerService {
         return (isGroupHeader || missingTitleAndText);
     }
 
+    public static void dump(String prefix, PrintWriter writer) {
+        NotificationListener listener = sNotificationListenerInstance;
+        if (listener != null) {
+            listener.mBurstStats.dump(prefix, writer);
+            listener.mRankingFetchStats.dump(prefix + "  ", writer);
+        }
+    }
+
+    /**
+     * Counts the notifications fetched on ranking updates, and the ones which did not need to be.
+     * Parceling a notification copies all of it, so only one in {@link #SAMPLE_RATE} fetched
+     * notifications is measured, and the byte counts are estimates.
+     */
+    private static class RankingFetchStats {
+
+        private static final int SAMPLE_RATE = 32;
+
+        private long mUpdateCount;
+        private long mFetchedCount;
+        private long mAvoidedCount;
+        private long mSampledCount;
+        private long mSampledBytes;
+
+        synchronized void onRankingUpdate(int keyCount,
+                @Nullable StatusBarNotification[] fetched) {
+            int fetchedCount = fetched == null ? 0 : fetched.length;
+            mUpdateCount++;
+            mAvoidedCount += Math.max(0, keyCount - fetchedCount);
+            for (int i = 0; i < fetchedCount; i++) {
+                if (mFetchedCount++ % SAMPLE_RATE == 0) {
+                    Parcel parcel = Parcel.obtain();
+                    fetched[i].writeToParcel(parcel, 0);
+                    mSampledBytes += parcel.dataSize();
+                    mSampledCount++;
+                    parcel.recycle();
+                }
+            }
+        }
+
+        synchronized void dump(String prefix, PrintWriter writer) {
+            long avgBytes = mSampledCount == 0 ? 0 : mSampledBytes / mSampledCount;
+            writer.println(prefix + "rankingUpdates=" + mUpdateCount
+                    + " fetchedNotifications=" + mFetchedCount
+                    + " avoidedNotifications=" + mAvoidedCount
+                    + " estimatedFetchedBytes=" + (mFetchedCount * avgBytes)
+                    + " estimatedAvoidedBytes=" + (mAvoidedCount * avgBytes)
+                    + " (sampled " + mSampledCount + " notifications)");
+        }
+    }
+
+    /**
+     * Counts the updates collapsed by delivering them once per frame.
+     */
+    private static class BurstStats {
+
+        private long mBurstCount;
+        private long mUpdateCount;
+        private long mDeliveredCount;
+        private int mMaxBurstUpdates;
+        // The last bursts, as the number of updates, delivered updates and packages of each.
+        private final int[][] mRecentBursts = new int[MAX_RECENT_BURSTS][];
+        private int mNextRecentBurst;
+
+        synchronized void onFlush(int updates, int delivered, int packages) {
+            if (updates == 0) {
+                // Only a full refresh
+                return;
+            }
+            mBurstCount++;
+            mUpdateCount += updates;
+            mDeliveredCount += delivered;
+            mMaxBurstUpdates = Math.max(mMaxBurstUpdates, updates);
+            mRecentBursts[mNextRecentBurst] = new int[] {updates, delivered, packages};
+            mNextRecentBurst = (mNextRecentBurst + 1) % MAX_RECENT_BURSTS;
+        }
+
+        synchronized void dump(String prefix, PrintWriter writer) {
+            writer.println(prefix + "NotificationListener: bursts=" + mBurstCount
+                    + " updates=" + mUpdateCount + " delivered=" + mDeliveredCount
+                    + " collapsed=" + (mUpdateCount - mDeliveredCount)
+                    + " maxBurstUpdates=" + mMaxBurstUpdates);
+            for (int i = 1; i <= MAX_RECENT_BURSTS; i++) {
+                int[] burst = mRecentBursts[(mNextRecentBurst - i + MAX_RECENT_BURSTS)
+                        % MAX_RECENT_BURSTS];
+                if (burst == null) {
+                    break;
+                }
+                writer.println(prefix + "  burst -" + i + ": updates=" + burst[0]
+                        + " collapsed=" + (burst[0] - burst[1]) + " packages=" + burst[2]);
+            }
+        }
+    }
+
+    /**
+     * Listener for the notifications, which are delivered on the UI thread at most once per
+     * frame: the full refresh first if there was one, then the last update of each changed
+     * notification followed by {@link #onNotificationBatchEnd()}.
+     */
     public interface NotificationsChangedListener {
         void onNotificationPosted(PackageUserKey postedPackageUserKey,
                 NotificationKeyData notificationKey, boolean shouldBeFilteredOut);
         void onNotificationRemoved(PackageUserKey removedPackageUserKey,
                 NotificationKeyData notificationKey);
         void onNotificationFullRefresh(List<StatusBarNotification> activeNotifications);
+        void onNotificationBatchEnd();
     }
 
     public interface StatusBarNotificationsChangedListener {
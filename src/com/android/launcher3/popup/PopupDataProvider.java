@@ -23,7 +23,6 @@ import android.util.Log;
 
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
-import com.android.launcher3.Utilities;
 import com.android.launcher3.badge.BadgeInfo;
 import com.android.launcher3.model.WidgetItem;
 import com.android.launcher3.notification.NotificationKeyData;
@@ -37,6 +36,7 @@ import com.android.launcher3.widget.WidgetListRowEntry;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -64,6 +64,9 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
     private Map<PackageUserKey, BadgeInfo> mPackageUserToBadgeInfos = new HashMap<>();
     /** Maps packages to their Widgets */
     private ArrayList<WidgetListRowEntry> mAllWidgets = new ArrayList<>();
+    /** Packages whose badge changed in the current batch of notifications. */
+    private final HashSet<PackageUserKey> mUpdatedBadges = new HashSet<>();
+    private boolean mNotificationsRemoved;
 
     public PopupDataProvider(Launcher launcher) {
         mLauncher = launcher;
@@ -92,7 +95,7 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
             }
         }
         if (badgeShouldBeRefreshed) {
-            mLauncher.updateIconBadges(Utilities.singletonHashSet(postedPackageUserKey));
+            mUpdatedBadges.add(postedPackageUserKey);
         }
     }
 
@@ -104,7 +107,19 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
             if (oldBadgeInfo.getNotificationKeys().size() == 0) {
                 mPackageUserToBadgeInfos.remove(removedPackageUserKey);
             }
-            mLauncher.updateIconBadges(Utilities.singletonHashSet(removedPackageUserKey));
+            mUpdatedBadges.add(removedPackageUserKey);
+            mNotificationsRemoved = true;
+        }
+    }
+
+    @Override
+    public void onNotificationBatchEnd() {
+        if (!mUpdatedBadges.isEmpty()) {
+            mLauncher.updateIconBadges(new HashSet<>(mUpdatedBadges));
+            mUpdatedBadges.clear();
+        }
+        if (mNotificationsRemoved) {
+            mNotificationsRemoved = false;
             trimNotifications(mPackageUserToBadgeInfos);
         }
     }
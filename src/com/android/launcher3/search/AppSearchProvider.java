@@ -41,8 +41,7 @@ import com.android.launcher3.LauncherModel;
 import com.android.launcher3.LauncherModel.ModelUpdateTask;
 import com.android.launcher3.StringSetAppFilter;
 import com.android.launcher3.allapps.AppInfoComparator;
-import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm;
-import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm.StringMatcher;
+import com.android.launcher3.allapps.search.AppSearchIndex;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.LoaderResults;
@@ -73,6 +72,8 @@ public class AppSearchProvider extends ContentProvider {
     public LauncherAppState mApp;
     public AppFilter mBaseFilter;
     public LooperExecutor mLooper;
+    // < only access in worker thread >
+    private AppSearchIndex.SearchSession mSearchSession;
     public final PipeDataWriter<Future> mPipeDataWriter;
 
     public AppSearchProvider() {
@@ -239,15 +240,13 @@ public class AppSearchProvider extends ContentProvider {
                 mModel.startLoaderForResults(new LoaderResults(mApp, mBgDataModel, mAllAppsList, 0, null));
             }
             if (mModel.isModelLoaded()) {
-                ArrayList<AppInfo> list = new ArrayList();
-                List<AppInfo> data = mAllAppsList.data;
-                StringMatcher instance = StringMatcher.getInstance();
-                for (AppInfo appInfo : data) {
-                    if (DefaultAppSearchAlgorithm.matches(appInfo, mQuery, instance)) {
-                        list.add(appInfo);
-                        if (appInfo.usingLowResIcon) {
-                            mApp.getIconCache().getTitleAndIcon(appInfo, false);
-                        }
+                if (mSearchSession == null) {
+                    mSearchSession = mAllAppsList.searchIndex.newSession();
+                }
+                ArrayList<AppInfo> list = mSearchSession.searchApps(mQuery, null);
+                for (AppInfo appInfo : list) {
+                    if (appInfo.usingLowResIcon) {
+                        mApp.getIconCache().getTitleAndIcon(appInfo, false);
                     }
                 }
                 Collections.sort(list, new AppInfoComparator(mApp.getContext()));
@@ -15,6 +15,8 @@
  */
 package com.android.launcher3.search;
 
+import android.os.CancellationSignal;
+
 import com.android.launcher3.allapps.search.AllAppsSearchBarController.Callbacks;
 import com.android.launcher3.util.ComponentKey;
 
@@ -25,6 +27,12 @@ public class SearchResult {
     public final ArrayList<ComponentKey> mApps = new ArrayList();
     public final Callbacks mCallbacks;
     public final String mQuery;
+    public final CancellationSignal mCancellationSignal = new CancellationSignal();
+
+    // Timestamps used to track the search latency, in uptime millis.
+    public long mEnqueueTime;
+    public long mStartTime;
+    public long mResultTime;
 
     public SearchResult(String query, Callbacks callbacks) {
         mQuery = query;
@@ -23,18 +23,46 @@ import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
 
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.allapps.AppInfoComparator;
 import com.android.launcher3.allapps.search.AllAppsSearchBarController.Callbacks;
+import com.android.launcher3.allapps.search.AppSearchIndex;
 import com.android.launcher3.allapps.search.SearchAlgorithm;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+
 public class SearchThread implements SearchAlgorithm, Callback {
 
+    private static final int MSG_SEARCH = 100;
+    private static final int MSG_RESULT = 200;
+
+    // Keystrokes received within a frame of each other are coalesced into a single search.
+    private static final long COALESCE_DELAY_MS = 16;
+
+    private static final LatencyStats sQueueLatency = new LatencyStats("queue");
+    private static final LatencyStats sComputeLatency = new LatencyStats("compute");
+    private static final LatencyStats sDeliverLatency = new LatencyStats("deliver");
+    private static int sCoalescedCount;
+    private static int sCancelledCount;
+    private static int sInProcessCount;
+
     public static HandlerThread handlerThread;
     public Context mContext;
     public Handler mHandler;
     public boolean mInterruptActiveRequests;
     public Handler mUiHandler = new Handler(this);
 
+    // The request currently being computed on the search thread, if any.
+    private volatile SearchResult mActiveRequest;
+    // < only access in the search thread >
+    private AppSearchIndex.SearchSession mSearchSession;
+
     public SearchThread(Context context) {
         mContext = context;
         if (handlerThread == null) {
@@ -45,15 +73,65 @@ public class SearchThread implements SearchAlgorithm, Callback {
     }
 
     public void queryResult(SearchResult componentList) {
+        componentList.mStartTime = SystemClock.uptimeMillis();
+        sQueueLatency.add(componentList.mStartTime - componentList.mEnqueueTime);
+        mActiveRequest = componentList;
+        try {
+            LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+            if (app != null && app.getModel().isModelLoaded()) {
+                queryInProcess(app, componentList);
+            } else {
+                queryProvider(componentList);
+            }
+        } catch (OperationCanceledException e) {
+            // The results will be dropped below.
+        } finally {
+            mActiveRequest = null;
+        }
+        if (componentList.mCancellationSignal.isCanceled()) {
+            synchronized (SearchThread.class) {
+                sCancelledCount++;
+            }
+            return;
+        }
+        componentList.mResultTime = SystemClock.uptimeMillis();
+        sComputeLatency.add(componentList.mResultTime - componentList.mStartTime);
+        Message.obtain(mUiHandler, MSG_RESULT, componentList).sendToTarget();
+    }
+
+    /**
+     * Searches the model directly, skipping the content provider round-trip when the model is
+     * already loaded in this process.
+     */
+    private void queryInProcess(LauncherAppState app, SearchResult componentList) {
+        if (mSearchSession == null) {
+            mSearchSession = app.getModel().getAppSearchIndex().newSession();
+        }
+        ArrayList<AppInfo> apps = mSearchSession.searchApps(
+                componentList.mQuery.toLowerCase(), componentList.mCancellationSignal);
+        if (apps == null) {
+            return;
+        }
+        Collections.sort(apps, new AppInfoComparator(mContext));
+        for (AppInfo info : apps) {
+            componentList.mApps.add(info.toComponentKey());
+        }
+        synchronized (SearchThread.class) {
+            sInProcessCount++;
+        }
+    }
+
+    private void queryProvider(SearchResult componentList) {
         Cursor cursor = null;
         try {
             cursor = mContext.getContentResolver().query(new Builder()
                 .scheme("content")
                 .authority("com.android.launcher3.appssearch")
                 .appendPath(componentList.mQuery)
-                .build(), null, null, null, null);
+                .build(), null, null, null, null, componentList.mCancellationSignal);
             int suggestIntentData = cursor.getColumnIndex("suggest_intent_data");
             while (cursor.moveToNext()) {
+                componentList.mCancellationSignal.throwIfCanceled();
                 componentList.mApps.add(AppSearchProvider.uriToComponent(Uri.parse(cursor.getString(suggestIntentData)), mContext));
             }
         } finally {
@@ -61,34 +139,89 @@ public class SearchThread implements SearchAlgorithm, Callback {
                 cursor.close();
             }
         }
-        Message.obtain(mUiHandler, 200, componentList).sendToTarget();
     }
 
     public void cancel(boolean interruptActiveRequests) {
         mInterruptActiveRequests = interruptActiveRequests;
-        mHandler.removeMessages(100);
+        mHandler.removeMessages(MSG_SEARCH);
+        cancelActiveRequest();
         if (interruptActiveRequests) {
-            mUiHandler.removeMessages(200);
+            mUiHandler.removeMessages(MSG_RESULT);
         }
     }
 
     public void doSearch(String query, Callbacks callback) {
-        mHandler.removeMessages(100);
-        Message.obtain(mHandler, 100, new SearchResult(query, callback)).sendToTarget();
+        if (mHandler.hasMessages(MSG_SEARCH)) {
+            synchronized (SearchThread.class) {
+                sCoalescedCount++;
+            }
+            mHandler.removeMessages(MSG_SEARCH);
+        }
+        // A newer query always supersedes the one being computed.
+        cancelActiveRequest();
+        SearchResult request = new SearchResult(query, callback);
+        request.mEnqueueTime = SystemClock.uptimeMillis();
+        mHandler.sendMessageDelayed(Message.obtain(mHandler, MSG_SEARCH, request),
+                COALESCE_DELAY_MS);
+    }
+
+    private void cancelActiveRequest() {
+        SearchResult active = mActiveRequest;
+        if (active != null) {
+            active.mCancellationSignal.cancel();
+        }
     }
 
     public boolean handleMessage(Message message) {
         int i = message.what;
-        if (i == 100) {
+        if (i == MSG_SEARCH) {
             queryResult((SearchResult) message.obj);
-        } else if (i != 200) {
+        } else if (i != MSG_RESULT) {
             return false;
         } else {
             if (!mInterruptActiveRequests) {
                 SearchResult searchResult = (SearchResult) message.obj;
+                sDeliverLatency.add(SystemClock.uptimeMillis() - searchResult.mResultTime);
                 searchResult.mCallbacks.onSearchResult(searchResult.mQuery, searchResult.mApps);
             }
         }
         return true;
     }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "SearchThread:");
+        synchronized (SearchThread.class) {
+            writer.println(prefix + "  coalesced=" + sCoalescedCount
+                    + " cancelled=" + sCancelledCount + " inProcess=" + sInProcessCount);
+        }
+        sQueueLatency.dump(prefix + "  ", writer);
+        sComputeLatency.dump(prefix + "  ", writer);
+        sDeliverLatency.dump(prefix + "  ", writer);
+    }
+
+    /**
+     * Running count, average and maximum of a latency in milliseconds.
+     */
+    private static class LatencyStats {
+
+        private final String mName;
+        private int mCount;
+        private long mTotal;
+        private long mMax;
+
+        LatencyStats(String name) {
+            mName = name;
+        }
+
+        synchronized void add(long latency) {
+            mCount++;
+            mTotal += latency;
+            mMax = Math.max(mMax, latency);
+        }
+
+        synchronized void dump(String prefix, PrintWriter writer) {
+            writer.println(prefix + mName + ": count=" + mCount
+                    + " avgMs=" + (mCount == 0 ? 0 : mTotal / mCount) + " maxMs=" + mMax);
+        }
+    }
 }
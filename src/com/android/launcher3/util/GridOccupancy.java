@@ -4,20 +4,45 @@ import android.graphics.Rect;
 
 import com.android.launcher3.ItemInfo;
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * Each row is stored as a bit mask, where bit x is set if the cell in column x is occupied, so
+ * that spans can be tested a row at a time.
  */
 public class GridOccupancy {
 
     private final int mCountX;
     private final int mCountY;
 
-    public final boolean[][] cells;
+    private final long[] mRows;
+    // Incremented every time the grid is modified.
+    private int mGeneration;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > Long.SIZE) {
+            throw new IllegalArgumentException("Grid is too wide: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mRows = new long[countY];
+    }
+
+    /**
+     * Returns a mask of {@param span} bits, starting at bit 0.
+     */
+    private static long spanMask(int span) {
+        return span <= 0 ? 0 : (-1L >>> (Long.SIZE - span));
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
     }
 
     /**
@@ -30,32 +55,35 @@ public class GridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        if (spanX <= 0 || spanY <= 0 || spanX > mCountX) {
+            return false;
+        }
+        // Bit x is set for every x where a span starting at x would still be in the grid.
+        long startMask = spanMask(mCountX - spanX + 1);
         for (int y = 0; (y + spanY) <= mCountY; y++) {
-            for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
-                }
+            long occupied = 0;
+            for (int j = y; j < y + spanY; j++) {
+                occupied |= mRows[j];
+            }
+            // Keep the columns which are followed by at least spanX - 1 vacant columns.
+            long vacant = ~occupied;
+            long starts = vacant;
+            for (int i = 1; i < spanX && starts != 0; i++) {
+                starts &= vacant >>> i;
+            }
+            starts &= startMask;
+            if (starts != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(starts);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
     }
 
     public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
-        }
+        System.arraycopy(mRows, 0, dest.mRows, 0, mCountY);
+        dest.mGeneration++;
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -64,11 +92,26 @@ public class GridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = spanMask(spanX) << x;
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if none of the occupied cells of {@param block}, placed with its top left
+     * corner at x, y, overlaps an occupied cell of this grid.
+     */
+    public boolean isRegionVacant(int x, int y, GridOccupancy block) {
+        if (x < 0 || y < 0 || x + block.mCountX > mCountX || y + block.mCountY > mCountY) {
+            return false;
+        }
+        for (int j = 0; j < block.mCountY; j++) {
+            if ((mRows[y + j] & (block.mRows[j] << x)) != 0) {
+                return false;
             }
         }
         return true;
@@ -76,9 +119,13 @@ public class GridOccupancy {
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        mGeneration++;
+        long mask = spanMask(Math.min(spanX, mCountX - cellX)) << cellX;
+        for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
         }
     }
@@ -96,6 +143,7 @@ public class GridOccupancy {
     }
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
+        mGeneration++;
     }
 }
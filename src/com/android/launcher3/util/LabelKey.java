@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Sort key of a user visible label, which orders labels like {@link LabelComparator}. The
+ * label is only normalized once, when the key is created, so comparing keys is much cheaper than
+ * comparing the labels with a {@link Collator}.
+ *
+ * Keys are cached by the items they sort, see {@link #get(LabelKey, CharSequence)}.
+ */
+public class LabelKey implements Comparable<LabelKey> {
+
+    private static volatile LocaleCollator sLocaleCollator;
+
+    private final CharSequence mLabel;
+    private final Locale mLocale;
+    private final boolean mStartsWithLetterOrDigit;
+    private final CollationKey mCollationKey;
+
+    private LabelKey(CharSequence label, LocaleCollator localeCollator) {
+        String text = label == null ? "" : label.toString();
+        mLabel = label;
+        mLocale = localeCollator.locale;
+        mStartsWithLetterOrDigit = text.length() > 0
+                && Character.isLetterOrDigit(text.codePointAt(0));
+        synchronized (localeCollator.collator) {
+            mCollationKey = localeCollator.collator.getCollationKey(text);
+        }
+    }
+
+    /**
+     * Returns the key of {@param label}, which is {@param cachedKey} if it was created for the
+     * same label in the current locale.
+     */
+    public static LabelKey get(LabelKey cachedKey, CharSequence label) {
+        LocaleCollator localeCollator = getLocaleCollator();
+        if (cachedKey != null && cachedKey.mLabel == label
+                && cachedKey.mLocale.equals(localeCollator.locale)) {
+            return cachedKey;
+        }
+        return new LabelKey(label, localeCollator);
+    }
+
+    private static LocaleCollator getLocaleCollator() {
+        Locale locale = Locale.getDefault();
+        LocaleCollator localeCollator = sLocaleCollator;
+        if (localeCollator == null || !localeCollator.locale.equals(locale)) {
+            localeCollator = new LocaleCollator(locale);
+            sLocaleCollator = localeCollator;
+        }
+        return localeCollator;
+    }
+
+    @Override
+    public int compareTo(LabelKey other) {
+        // Ensure that we de-prioritize any labels that don't start with a
+        // linguistic letter or digit
+        if (mStartsWithLetterOrDigit != other.mStartsWithLetterOrDigit) {
+            return mStartsWithLetterOrDigit ? -1 : 1;
+        }
+        return mCollationKey.compareTo(other.mCollationKey);
+    }
+
+    private static class LocaleCollator {
+        final Locale locale;
+        final Collator collator;
+
+        LocaleCollator(Locale locale) {
+            this.locale = locale;
+            collator = Collator.getInstance(locale);
+        }
+    }
+}
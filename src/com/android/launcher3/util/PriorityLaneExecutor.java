@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Launcher-wide executor for background work, which runs tasks in the order of their lane
+ * rather than in the order they were submitted.
+ *
+ * {@link #LANE_USER_VISIBLE} and {@link #LANE_PREFETCH} share a pool of threads, in which
+ * pending prefetches only run once no user visible task is waiting. User visible tasks run at
+ * the default thread priority and prefetches in the background. {@link #LANE_MAINTENANCE}
+ * tasks, like disk writes, run one at a time on their own low priority thread so that they
+ * never hold a thread needed by the other lanes.
+ *
+ * Tasks can have a timeout, after which they are dropped if they did not start yet. Cancelled
+ * {@link Future}s are dropped as well instead of taking a thread.
+ */
+public class PriorityLaneExecutor {
+
+    public static final int LANE_USER_VISIBLE = 0;
+    public static final int LANE_PREFETCH = 1;
+    public static final int LANE_MAINTENANCE = 2;
+    private static final String[] LANE_NAMES = {"userVisible", "prefetch", "maintenance"};
+    // Thread priority of the tasks of each lane, set before each task as lanes share threads.
+    private static final int[] LANE_THREAD_PRIORITIES = {
+            Process.THREAD_PRIORITY_DEFAULT,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE};
+
+    // Same as the pool size of AsyncTask.
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() + 1;
+    private static final int KEEP_ALIVE_SECONDS = 1;
+
+    private static final PriorityLaneExecutor INSTANCE = new PriorityLaneExecutor();
+
+    public static PriorityLaneExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    public static Executor getLane(int lane) {
+        return INSTANCE.mLanes[lane];
+    }
+
+    private final ThreadPoolExecutor mPool;
+    private final ThreadPoolExecutor mMaintenanceThread;
+    private final Executor[] mLanes = new Executor[LANE_NAMES.length];
+    private final LaneStats[] mStats = new LaneStats[LANE_NAMES.length];
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private PriorityLaneExecutor() {
+        // The queue is unbounded, so the pool never grows past its core size.
+        mPool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new LaneThreadFactory("launcher-pool"));
+        mPool.allowCoreThreadTimeOut(true);
+        mMaintenanceThread = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new LaneThreadFactory("launcher-maintenance"));
+        mMaintenanceThread.allowCoreThreadTimeOut(true);
+
+        for (int i = 0; i < mLanes.length; i++) {
+            final int lane = i;
+            mStats[i] = new LaneStats();
+            mLanes[i] = runnable -> execute(lane, runnable, 0);
+        }
+    }
+
+    /**
+     * Runs {@param runnable} in {@param lane}. If {@param timeoutMs} is positive and the task
+     * did not start by then, it is dropped, and cancelled if it is a {@link Future}.
+     */
+    public void execute(int lane, Runnable runnable, long timeoutMs) {
+        long now = SystemClock.uptimeMillis();
+        LaneTask task = new LaneTask(lane, mSequence.getAndIncrement(), now,
+                timeoutMs > 0 ? now + timeoutMs : 0, runnable);
+        mStats[lane].onQueued();
+        (lane == LANE_MAINTENANCE ? mMaintenanceThread : mPool).execute(task);
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "PriorityLaneExecutor: threads=" + mPool.getPoolSize()
+                + " maintenanceThreads=" + mMaintenanceThread.getPoolSize());
+        for (int i = 0; i < mStats.length; i++) {
+            mStats[i].dump(prefix + "  " + LANE_NAMES[i] + ": ", writer);
+        }
+    }
+
+    private class LaneTask implements Runnable, Comparable<LaneTask> {
+
+        private final int mLane;
+        private final long mSequence;
+        private final long mQueueTime;
+        private final long mDeadline;
+        private final Runnable mRunnable;
+
+        LaneTask(int lane, long sequence, long queueTime, long deadline, Runnable runnable) {
+            mLane = lane;
+            mSequence = sequence;
+            mQueueTime = queueTime;
+            mDeadline = deadline;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            boolean cancelled = mRunnable instanceof Future && ((Future) mRunnable).isCancelled();
+            boolean expired = mDeadline > 0 && now > mDeadline;
+            mStats[mLane].onDequeued(now - mQueueTime, cancelled || expired);
+            if (expired) {
+                if (mRunnable instanceof Future) {
+                    ((Future) mRunnable).cancel(false);
+                }
+                return;
+            }
+            if (!cancelled) {
+                Process.setThreadPriority(LANE_THREAD_PRIORITIES[mLane]);
+                mRunnable.run();
+            }
+        }
+
+        @Override
+        public int compareTo(LaneTask other) {
+            if (mLane != other.mLane) {
+                return Integer.compare(mLane, other.mLane);
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    private static class LaneStats {
+
+        private int mQueueDepth;
+        private int mMaxQueueDepth;
+        private long mRunCount;
+        private long mDropCount;
+        private long mTotalWaitMs;
+        private long mMaxWaitMs;
+
+        synchronized void onQueued() {
+            mQueueDepth++;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueueDepth);
+        }
+
+        synchronized void onDequeued(long waitMs, boolean dropped) {
+            mQueueDepth--;
+            if (dropped) {
+                mDropCount++;
+            } else {
+                mRunCount++;
+            }
+            mTotalWaitMs += waitMs;
+            mMaxWaitMs = Math.max(mMaxWaitMs, waitMs);
+        }
+
+        synchronized void dump(String prefix, PrintWriter writer) {
+            long dequeued = mRunCount + mDropCount;
+            writer.println(prefix + "queueDepth=" + mQueueDepth + " maxQueueDepth="
+                    + mMaxQueueDepth + " run=" + mRunCount + " dropped=" + mDropCount
+                    + " avgWaitMs=" + (dequeued == 0 ? 0 : mTotalWaitMs / dequeued)
+                    + " maxWaitMs=" + mMaxWaitMs);
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicLong mCount = new AtomicLong();
+
+        LaneThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
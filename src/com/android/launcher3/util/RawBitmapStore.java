@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.graphics.BitmapPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the pixels of bitmaps uncompressed in an append-only side file of a cache DB, so that
+ * they are neither PNG encoded on write nor decoded on read. The DB only keeps a small record
+ * with the offset and the size of the pixels, which are read back through a memory mapping.
+ *
+ * Pixels of replaced rows are only reclaimed once the file reaches its maximum size, by
+ * {@link #compact} which copies the live pixels to a new file. Records carry the generation of
+ * the file they point to, so records of a compacted or cleared file are not read. Bitmaps which
+ * do not fit are stored as PNG in the DB.
+ */
+public class RawBitmapStore {
+
+    private static final String TAG = "RawBitmapStore";
+
+    // The file starts with a magic number and its generation.
+    private static final int FILE_MAGIC = 0x52415746;
+    private static final int HEADER_SIZE = 4 + 4;
+    // Marks a DB blob as a record of this store rather than a PNG, which starts with 0x89.
+    private static final int RECORD_MAGIC = 0x52415732;
+    private static final int RECORD_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // Fraction of the maximum size which must be reclaimed for a compaction to be worth it.
+    private static final float MIN_RECLAIMED_FRACTION = 0.25f;
+
+    private final File mFile;
+    private final File mCompactedFile;
+    private final long mMaxBytes;
+
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mMappedPixels;
+    private int mGeneration;
+
+    // Bytes of the bitmaps stored as PNG because the file was full, since the last compaction
+    // check, and how many of them it takes to check again.
+    private long mRejectedBytes;
+    private long mNextCheckRejectedBytes;
+
+    // The file written by compact(), until it is committed or aborted.
+    private RandomAccessFile mPendingFile;
+    private int mPendingGeneration;
+
+    private int mCompactionCount;
+    private long mReclaimedBytes;
+
+    private final AtomicLong mRawReadCount = new AtomicLong();
+    private final AtomicLong mRawReadNanos = new AtomicLong();
+    private final AtomicLong mPngReadCount = new AtomicLong();
+    private final AtomicLong mPngReadNanos = new AtomicLong();
+
+    public RawBitmapStore(File file, long maxBytes) {
+        mFile = file;
+        mCompactedFile = new File(file.getPath() + ".compacted");
+        mMaxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the blob to store in the DB for {@param bitmap}. That is a record pointing to its
+     * pixels in the side file, or a PNG if the pixels could not be stored.
+     */
+    public synchronized byte[] flatten(Bitmap bitmap) {
+        if (bitmap.getConfig() != Config.ARGB_8888) {
+            return Utilities.flattenBitmap(bitmap);
+        }
+        int length = bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+        try {
+            FileChannel channel = getFile().getChannel();
+            long offset = channel.size();
+            if (offset + length > mMaxBytes) {
+                mRejectedBytes += length;
+                return Utilities.flattenBitmap(bitmap);
+            }
+            ByteBuffer pixels = ByteBuffer.allocate(length);
+            bitmap.copyPixelsToBuffer(pixels);
+            pixels.rewind();
+            write(channel, pixels, offset);
+            return newRecord(mGeneration, offset, bitmap.getWidth(), bitmap.getHeight());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write bitmap pixels", e);
+            return Utilities.flattenBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Decodes a blob returned by {@link #flatten}. {@param options} is used the same way as
+     * {@link BitmapFactory} does for the preferred config and the bitmap to reuse.
+     */
+    public Bitmap decode(byte[] blob, BitmapFactory.Options options) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        if (!isRecord(blob)) {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(blob, 0, blob.length, options);
+            mPngReadCount.incrementAndGet();
+            mPngReadNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+            return bitmap;
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(blob);
+        record.getInt();
+        int generation = record.getInt();
+        long offset = record.getLong();
+        int width = record.getInt();
+        int height = record.getInt();
+        ByteBuffer pixels = getPixels(generation, offset, width * height * BYTES_PER_PIXEL);
+        if (pixels == null) {
+            return null;
+        }
+
+        Bitmap bitmap = options == null ? null : options.inBitmap;
+        if (bitmap != null && bitmap.isMutable()
+                && bitmap.getAllocationByteCount() >= pixels.remaining()) {
+            bitmap.reconfigure(width, height, Config.ARGB_8888);
+        } else {
+            bitmap = BitmapPool.getInstance().obtain(width, height, Config.ARGB_8888);
+        }
+        bitmap.copyPixelsFromBuffer(pixels);
+
+        Config config = options == null ? null : options.inPreferredConfig;
+        if (config != null && config != Config.ARGB_8888) {
+            Bitmap converted = bitmap.copy(config, false);
+            if (converted != null) {
+                // The pixels were only needed for the copy.
+                BitmapPool.getInstance().release(bitmap);
+                bitmap = converted;
+            }
+        }
+        mRawReadCount.incrementAndGet();
+        mRawReadNanos.addAndGet(SystemClock.elapsedRealtimeNanos() - start);
+        return bitmap;
+    }
+
+    /**
+     * Returns true if {@param blob} is a record of this store rather than an encoded bitmap.
+     */
+    public static boolean isRecord(byte[] blob) {
+        return blob != null && blob.length == RECORD_SIZE
+                && ByteBuffer.wrap(blob).getInt() == RECORD_MAGIC;
+    }
+
+    private static byte[] newRecord(int generation, long offset, int width, int height) {
+        return ByteBuffer.allocate(RECORD_SIZE)
+                .putInt(RECORD_MAGIC)
+                .putInt(generation)
+                .putLong(offset)
+                .putInt(width)
+                .putInt(height)
+                .array();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long offset)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private synchronized ByteBuffer getPixels(int generation, long offset, int length) {
+        try {
+            FileChannel channel = getFile().getChannel();
+            if (generation != mGeneration) {
+                // The record points to a file which was compacted or cleared since.
+                return null;
+            }
+            if (mMappedPixels == null || offset + length > mMappedPixels.capacity()) {
+                // The file grew since it was mapped.
+                mMappedPixels = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not map bitmap pixels", e);
+            return null;
+        }
+        if (offset < HEADER_SIZE || offset + length > mMappedPixels.capacity()) {
+            // The record is not valid for this file.
+            return null;
+        }
+        ByteBuffer pixels = mMappedPixels.duplicate();
+        pixels.position((int) offset);
+        pixels.limit((int) offset + length);
+        return pixels;
+    }
+
+    private RandomAccessFile getFile() throws IOException {
+        if (mRandomAccessFile == null) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            if (file.length() >= HEADER_SIZE && file.readInt() == FILE_MAGIC) {
+                mGeneration = file.readInt();
+            } else {
+                // A new file, pick a generation which records of a cleared file are unlikely
+                // to have.
+                mGeneration = new Random().nextInt();
+                writeHeader(file, mGeneration);
+            }
+            mRandomAccessFile = file;
+        }
+        return mRandomAccessFile;
+    }
+
+    private static void writeHeader(RandomAccessFile file, int generation) throws IOException {
+        file.setLength(0);
+        file.seek(0);
+        file.writeInt(FILE_MAGIC);
+        file.writeInt(generation);
+    }
+
+    /**
+     * Returns true if bitmaps were stored as PNG because the file is full, and it may be worth
+     * calling {@link #compact} with the records currently in the DB.
+     */
+    public synchronized boolean shouldCompact() {
+        return mRejectedBytes > mNextCheckRejectedBytes;
+    }
+
+    /**
+     * Copies the pixels of the live {@param records}, which are all the records in the DB, to a
+     * new file if that reclaims enough space.
+     *
+     * @return the records pointing to the new file, in the same order, with null for the records
+     *         which are not valid anymore, or null if the file was not compacted. The DB must be
+     *         updated with them before calling {@link #commitCompaction()}, records returned by
+     *         {@link #flatten} in between will not be valid.
+     */
+    public synchronized byte[][] compact(List<byte[]> records) {
+        abortCompaction();
+        try {
+            long fileBytes = getFile().length();
+            long liveBytes = HEADER_SIZE;
+            for (byte[] blob : records) {
+                ByteBuffer record = ByteBuffer.wrap(blob);
+                record.getInt();
+                if (record.getInt() == mGeneration) {
+                    record.getLong();
+                    liveBytes += (long) record.getInt() * record.getInt() * BYTES_PER_PIXEL;
+                }
+            }
+            mRejectedBytes = 0;
+            if (fileBytes - liveBytes < mMaxBytes * MIN_RECLAIMED_FRACTION) {
+                // Most of the file is live, wait until more bitmaps are rejected to check again,
+                // as they may replace live records.
+                mNextCheckRejectedBytes = (long) (mMaxBytes * MIN_RECLAIMED_FRACTION);
+                return null;
+            }
+            mNextCheckRejectedBytes = 0;
+
+            mPendingGeneration = mGeneration + 1;
+            mPendingFile = new RandomAccessFile(mCompactedFile, "rw");
+            writeHeader(mPendingFile, mPendingGeneration);
+            FileChannel channel = mPendingFile.getChannel();
+            long offset = HEADER_SIZE;
+            byte[][] compacted = new byte[records.size()][];
+            for (int i = 0; i < compacted.length; i++) {
+                ByteBuffer record = ByteBuffer.wrap(records.get(i));
+                record.getInt();
+                int generation = record.getInt();
+                long oldOffset = record.getLong();
+                int width = record.getInt();
+                int height = record.getInt();
+                ByteBuffer pixels = getPixels(generation, oldOffset,
+                        width * height * BYTES_PER_PIXEL);
+                if (pixels == null) {
+                    continue;
+                }
+                int length = pixels.remaining();
+                write(channel, pixels, offset);
+                compacted[i] = newRecord(mPendingGeneration, offset, width, height);
+                offset += length;
+            }
+            mReclaimedBytes += fileBytes - offset;
+            return compacted;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not compact bitmap pixels", e);
+            abortCompaction();
+            return null;
+        }
+    }
+
+    /**
+     * Switches to the file written by {@link #compact}, once the DB points to it.
+     */
+    public synchronized void commitCompaction() {
+        if (mPendingFile == null) {
+            return;
+        }
+        closeFile();
+        if (!mCompactedFile.renameTo(mFile)) {
+            Log.w(TAG, "Could not replace bitmap pixels");
+            abortCompaction();
+            mFile.delete();
+            return;
+        }
+        mRandomAccessFile = mPendingFile;
+        mGeneration = mPendingGeneration;
+        mPendingFile = null;
+        mCompactionCount++;
+    }
+
+    /**
+     * Drops the file written by {@link #compact}, if the DB could not be updated.
+     */
+    public synchronized void abortCompaction() {
+        if (mPendingFile != null) {
+            try {
+                mPendingFile.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            mPendingFile = null;
+        }
+        mCompactedFile.delete();
+    }
+
+    private void closeFile() {
+        mMappedPixels = null;
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            mRandomAccessFile = null;
+        }
+    }
+
+    /**
+     * Removes all the pixels, to be called when the records in the DB are removed.
+     */
+    public synchronized void clear() {
+        abortCompaction();
+        closeFile();
+        mFile.delete();
+        mRejectedBytes = 0;
+        mNextCheckRejectedBytes = 0;
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        long rawReads = mRawReadCount.get();
+        long pngReads = mPngReadCount.get();
+        writer.println(prefix + mFile.getName() + ": bytes=" + mFile.length()
+                + " maxBytes=" + mMaxBytes + " compactions=" + mCompactionCount
+                + " reclaimedBytes=" + mReclaimedBytes);
+        writer.println(prefix + "  rawReads=" + rawReads + " avgRawReadUs=" + (rawReads == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMicros(mRawReadNanos.get()) / rawReads)
+                + " pngReads=" + pngReads + " avgPngReadUs=" + (pngReads == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMicros(mPngReadNanos.get()) / pngReads));
+    }
+}
@@ -7,11 +7,17 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
@@ -22,21 +28,65 @@ public abstract class SQLiteCacheHelper {
     private static final boolean NO_ICON_CACHE = FeatureFlags.IS_DOGFOOD_BUILD &&
             Utilities.isPropertyEnabled(LogConfig.MEMORY_ONLY_ICON_CACHE);
 
+    private static final String RAW_BITMAPS_SUFFIX = "-pixels";
+
     private final String mTableName;
     private final MySQLiteOpenHelper mOpenHelper;
+    private final RawBitmapStore mRawBitmapStore;
 
     private boolean mIgnoreWrites;
 
     public SQLiteCacheHelper(Context context, String name, int version, String tableName) {
+        this(context, name, version, tableName, 0);
+    }
+
+    /**
+     * @param maxRawBitmapBytes maximum size of the uncompressed bitmaps stored next to the DB
+     *                          when {@link FeatureFlags#RAW_BITMAP_CACHE} is enabled, see
+     *                          {@link RawBitmapStore}.
+     */
+    public SQLiteCacheHelper(Context context, String name, int version, String tableName,
+            long maxRawBitmapBytes) {
         if (NO_ICON_CACHE) {
             name = null;
         }
         mTableName = tableName;
         mOpenHelper = new MySQLiteOpenHelper(context, name, version);
+        mRawBitmapStore = FeatureFlags.RAW_BITMAP_CACHE && name != null && maxRawBitmapBytes > 0
+                ? new RawBitmapStore(context.getDatabasePath(name + RAW_BITMAPS_SUFFIX),
+                        maxRawBitmapBytes)
+                : null;
 
         mIgnoreWrites = false;
     }
 
+    /**
+     * Returns the blob to store for {@param bitmap}.
+     * @see Utilities#flattenBitmap(Bitmap)
+     */
+    public byte[] flattenBitmap(Bitmap bitmap) {
+        return mRawBitmapStore != null
+                ? mRawBitmapStore.flatten(bitmap) : Utilities.flattenBitmap(bitmap);
+    }
+
+    /**
+     * Decodes a blob stored by {@link #flattenBitmap}, or returns null if it is not valid.
+     */
+    public Bitmap decodeBitmap(byte[] blob, BitmapFactory.Options options) {
+        try {
+            if (mRawBitmapStore != null) {
+                return mRawBitmapStore.decode(blob, options);
+            } else if (RawBitmapStore.isRecord(blob)) {
+                // The raw bitmaps were turned off since this was stored.
+                return null;
+            } else {
+                return BitmapFactory.decodeByteArray(blob, 0, blob.length, options);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /**
      * @see SQLiteDatabase#delete(String, String, String[])
      */
@@ -68,6 +118,102 @@ public abstract class SQLiteCacheHelper {
         } catch (SQLiteException e) {
             Log.d(TAG, "Ignoring sqlite exception", e);
         }
+        compactRawBitmapsIfNeeded();
+    }
+
+    /**
+     * Inserts or replaces all the {@param rows} in a single transaction.
+     * @see SQLiteDatabase#insertWithOnConflict(String, String, ContentValues, int)
+     */
+    public void insertOrReplace(List<ContentValues> rows) {
+        if (mIgnoreWrites) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (ContentValues values : rows) {
+                    db.insertWithOnConflict(
+                            mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        }
+        compactRawBitmapsIfNeeded();
+    }
+
+    /**
+     * Reclaims the pixels of replaced rows once the raw bitmaps file is full, by copying the
+     * live pixels to a new file and updating their records in a single transaction.
+     */
+    private void compactRawBitmapsIfNeeded() {
+        if (mIgnoreWrites || mRawBitmapStore == null || !mRawBitmapStore.shouldCompact()) {
+            return;
+        }
+        ArrayList<Long> rowIds = new ArrayList<>();
+        ArrayList<String> columns = new ArrayList<>();
+        ArrayList<byte[]> records = new ArrayList<>();
+        byte[][] compacted = null;
+        boolean committed = false;
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                Cursor c = db.rawQuery("SELECT rowid, * FROM " + mTableName, null);
+                try {
+                    while (c.moveToNext()) {
+                        for (int i = 1; i < c.getColumnCount(); i++) {
+                            if (c.getType(i) != Cursor.FIELD_TYPE_BLOB) {
+                                continue;
+                            }
+                            byte[] blob = c.getBlob(i);
+                            if (RawBitmapStore.isRecord(blob)) {
+                                rowIds.add(c.getLong(0));
+                                columns.add(c.getColumnName(i));
+                                records.add(blob);
+                            }
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+
+                compacted = mRawBitmapStore.compact(records);
+                if (compacted != null) {
+                    ContentValues values = new ContentValues();
+                    for (int i = 0; i < compacted.length; i++) {
+                        if (compacted[i] == null) {
+                            // Not readable anymore, decoding it fails either way.
+                            continue;
+                        }
+                        values.clear();
+                        values.put(columns.get(i), compacted[i]);
+                        db.update(mTableName, values, "rowid = ?",
+                                new String[] {Long.toString(rowIds.get(i))});
+                    }
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
+            committed = compacted != null;
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        }
+        if (committed) {
+            mRawBitmapStore.commitCompaction();
+        } else if (compacted != null) {
+            mRawBitmapStore.abortCompaction();
+        }
     }
 
     private void onDiskFull(SQLiteFullException e) {
@@ -89,6 +235,12 @@ public abstract class SQLiteCacheHelper {
 
     protected abstract void onCreateTable(SQLiteDatabase db);
 
+    public void dump(String prefix, PrintWriter writer) {
+        if (mRawBitmapStore != null) {
+            mRawBitmapStore.dump(prefix, writer);
+        }
+    }
+
     /**
      * A private inner class to prevent direct DB access.
      */
@@ -119,6 +271,9 @@ public abstract class SQLiteCacheHelper {
 
         private void clearDB(SQLiteDatabase db) {
             db.execSQL("DROP TABLE IF EXISTS " + mTableName);
+            if (mRawBitmapStore != null) {
+                mRawBitmapStore.clear();
+            }
             onCreate(db);
         }
     }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import com.android.launcher3.model.nano.LauncherDumpProto.TimingHistogram;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long the sections of the launcher take in histograms, in all builds, unlike
+ * {@link TraceHelper} which only logs on dogfood builds.
+ *
+ * A histogram is kept per section and partition, with the same fixed buckets for all of them,
+ * so the memory used only depends on the number of partitions. Partitions must therefore be
+ * constant names, not built from the recorded data.
+ */
+public class TimingRecorder {
+
+    public static final String SECTION_LOADER = "LoaderTask";
+    public static final String SECTION_BIND = "LoaderResults";
+    public static final String SECTION_ICON_CACHE = "IconCache";
+
+    // Upper bounds of the buckets, the last bucket counts everything above the last bound.
+    private static final long[] BUCKET_BOUNDS_US = {
+            250, 500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000, 256000, 512000,
+            1024000, 2048000, 4096000};
+
+    private static final TimingRecorder INSTANCE = new TimingRecorder();
+
+    public static TimingRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    private final ArrayMap<String, Histogram> mHistogramsByKey = new ArrayMap<>();
+    private final ArrayList<Histogram> mHistograms = new ArrayList<>();
+
+    private TimingRecorder() { }
+
+    /**
+     * Returns the histogram of {@param partition} in {@param section}, which callers recording
+     * often can keep instead of looking it up every time.
+     */
+    public synchronized Histogram getHistogram(String section, String partition) {
+        String key = section + '/' + partition;
+        Histogram histogram = mHistogramsByKey.get(key);
+        if (histogram == null) {
+            histogram = new Histogram(section, partition);
+            mHistogramsByKey.put(key, histogram);
+            mHistograms.add(histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns a runnable which runs {@param runnable} and records how long it took.
+     */
+    public Runnable timed(String section, String partition, final Runnable runnable) {
+        final Histogram histogram = getHistogram(section, partition);
+        return new Runnable() {
+            @Override
+            public void run() {
+                long start = now();
+                runnable.run();
+                histogram.recordSince(start);
+            }
+        };
+    }
+
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "TimingRecorder: bucketBoundsUs="
+                + Arrays.toString(BUCKET_BOUNDS_US));
+        for (Histogram histogram : mHistograms) {
+            histogram.dump(prefix + "  ", writer);
+        }
+    }
+
+    public synchronized TimingHistogram[] toProto() {
+        TimingHistogram[] protos = new TimingHistogram[mHistograms.size()];
+        for (int i = 0; i < protos.length; i++) {
+            protos[i] = mHistograms.get(i).toProto();
+        }
+        return protos;
+    }
+
+    /**
+     * Durations of a single partition.
+     */
+    public static class Histogram {
+
+        private final String mSection;
+        private final String mPartition;
+        private final long[] mBuckets = new long[BUCKET_BOUNDS_US.length + 1];
+        private long mCount;
+        private long mTotalUs;
+        private long mMaxUs;
+
+        Histogram(String section, String partition) {
+            mSection = section;
+            mPartition = partition;
+        }
+
+        /**
+         * Records the time elapsed since {@param startNanos}, as returned by {@link #now()}.
+         */
+        public void recordSince(long startNanos) {
+            record(TimeUnit.NANOSECONDS.toMicros(now() - startNanos));
+        }
+
+        public synchronized void record(long durationUs) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_US.length && durationUs > BUCKET_BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+            mCount++;
+            mTotalUs += durationUs;
+            mMaxUs = Math.max(mMaxUs, durationUs);
+        }
+
+        synchronized void dump(String prefix, PrintWriter writer) {
+            StringBuilder buckets = new StringBuilder();
+            for (int i = 0; i < mBuckets.length; i++) {
+                buckets.append(i == 0 ? "" : ",").append(mBuckets[i]);
+            }
+            writer.println(prefix + mSection + " / " + mPartition + ": count=" + mCount
+                    + " avgUs=" + (mCount == 0 ? 0 : mTotalUs / mCount) + " maxUs=" + mMaxUs
+                    + " buckets=[" + buckets + "]");
+        }
+
+        synchronized TimingHistogram toProto() {
+            TimingHistogram proto = new TimingHistogram();
+            proto.section = mSection;
+            proto.partition = mPartition;
+            proto.count = mCount;
+            proto.totalUs = mTotalUs;
+            proto.maxUs = mMaxUs;
+            proto.bucketBoundUs = BUCKET_BOUNDS_US.clone();
+            proto.bucketCount = mBuckets.clone();
+            return proto;
+        }
+    }
+
+    /**
+     * Records the durations of consecutive steps of a section, each step ending when the next
+     * one starts. The section starts with its first step.
+     */
+    public static class StepTimer {
+
+        private final String mSection;
+        private long mStart = -1;
+        private String mStep;
+        private long mStepStart;
+
+        public StepTimer(String section) {
+            mSection = section;
+        }
+
+        public void startStep(String step) {
+            long now = now();
+            if (mStart < 0) {
+                mStart = now;
+            }
+            if (mStep != null) {
+                INSTANCE.getHistogram(mSection, mStep).record(
+                        TimeUnit.NANOSECONDS.toMicros(now - mStepStart));
+            }
+            mStep = step;
+            mStepStart = now;
+        }
+
+        /**
+         * Ends the last step and records the duration of the whole section as
+         * {@param totalPartition}.
+         */
+        public void finish(String totalPartition) {
+            startStep(null);
+            INSTANCE.getHistogram(mSection, totalPartition).recordSince(mStart);
+        }
+
+        /**
+         * Ends the section without recording the last step, which did not complete.
+         */
+        public void cancel() {
+            mStep = null;
+        }
+    }
+}
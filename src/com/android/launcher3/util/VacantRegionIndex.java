@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+/**
+ * The vacant regions of a {@link GridOccupancy} in which an item fits, for a given range of
+ * spans. A region is found for every cell where the minimum span fits, grown alternately
+ * horizontally and vertically up to the maximum span. Regions which are contained by a region
+ * found before them are flagged, as they are only worth picking if they contain the best region
+ * so far.
+ *
+ * The regions do not depend on where the item is dropped, so they are only computed again when
+ * the grid or the spans change. The arrays are reused, so looking up the regions does not
+ * allocate.
+ */
+public class VacantRegionIndex {
+
+    private final GridOccupancy mOccupied;
+    private final int mCountX;
+    private final int mCountY;
+
+    // Regions in the order they were found, with their left, top, right and bottom cells.
+    private final int[] mLeft;
+    private final int[] mTop;
+    private final int[] mRight;
+    private final int[] mBottom;
+    private final boolean[] mContained;
+    private int mRegionCount;
+
+    private int mGeneration = -1;
+    private int mMinSpanX;
+    private int mMinSpanY;
+    private int mSpanX;
+    private int mSpanY;
+
+    public VacantRegionIndex(GridOccupancy occupied, int countX, int countY) {
+        mOccupied = occupied;
+        mCountX = countX;
+        mCountY = countY;
+        int maxRegions = countX * countY;
+        mLeft = new int[maxRegions];
+        mTop = new int[maxRegions];
+        mRight = new int[maxRegions];
+        mBottom = new int[maxRegions];
+        mContained = new boolean[maxRegions];
+    }
+
+    /**
+     * Makes sure the regions are those of the current grid, for an item which needs at least
+     * minSpanX x minSpanY cells and at most spanX x spanY cells.
+     */
+    public void update(int minSpanX, int minSpanY, int spanX, int spanY) {
+        if (mGeneration == mOccupied.getGeneration() && mMinSpanX == minSpanX
+                && mMinSpanY == minSpanY && mSpanX == spanX && mSpanY == spanY) {
+            return;
+        }
+        mGeneration = mOccupied.getGeneration();
+        mMinSpanX = minSpanX;
+        mMinSpanY = minSpanY;
+        mSpanX = spanX;
+        mSpanY = spanY;
+
+        mRegionCount = 0;
+        for (int y = 0; y < mCountY - (minSpanY - 1); y++) {
+            for (int x = 0; x < mCountX - (minSpanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (!mOccupied.isRegionVacant(x, y, minSpanX, minSpanY)) {
+                    continue;
+                }
+                int xSize = minSpanX;
+                int ySize = minSpanY;
+
+                // We know that the item will fit at _some_ acceptable size, now let's see
+                // how big we can make it. We'll alternate between incrementing x and y spans
+                // until we hit a limit.
+                boolean incX = true;
+                boolean hitMaxX = xSize >= spanX;
+                boolean hitMaxY = ySize >= spanY;
+                while (!(hitMaxX && hitMaxY)) {
+                    if (incX && !hitMaxX) {
+                        if (!mOccupied.isRegionVacant(x + xSize, y, 1, ySize)) {
+                            // We can't move out horizontally
+                            hitMaxX = true;
+                        } else {
+                            xSize++;
+                        }
+                    } else if (!hitMaxY) {
+                        if (!mOccupied.isRegionVacant(x, y + ySize, xSize, 1)) {
+                            // We can't move out vertically
+                            hitMaxY = true;
+                        } else {
+                            ySize++;
+                        }
+                    }
+                    hitMaxX |= xSize >= spanX;
+                    hitMaxY |= ySize >= spanY;
+                    incX = !incX;
+                }
+                addRegion(x, y, x + xSize, y + ySize);
+            }
+        }
+    }
+
+    private void addRegion(int left, int top, int right, int bottom) {
+        int index = mRegionCount++;
+        mLeft[index] = left;
+        mTop[index] = top;
+        mRight[index] = right;
+        mBottom[index] = bottom;
+        mContained[index] = false;
+        for (int i = 0; i < index; i++) {
+            if (contains(i, left, top, right, bottom)) {
+                mContained[index] = true;
+                break;
+            }
+        }
+    }
+
+    public int getRegionCount() {
+        return mRegionCount;
+    }
+
+    public int getLeft(int index) {
+        return mLeft[index];
+    }
+
+    public int getTop(int index) {
+        return mTop[index];
+    }
+
+    public int getWidth(int index) {
+        return mRight[index] - mLeft[index];
+    }
+
+    public int getHeight(int index) {
+        return mBottom[index] - mTop[index];
+    }
+
+    /**
+     * Returns true if the region at {@param index} is contained by a region found before it.
+     */
+    public boolean isContained(int index) {
+        return mContained[index];
+    }
+
+    /**
+     * Returns true if the region at {@param index} contains the given cells, with the same
+     * semantics as {@link android.graphics.Rect#contains(int, int, int, int)}.
+     */
+    public boolean contains(int index, int left, int top, int right, int bottom) {
+        return mLeft[index] < mRight[index] && mTop[index] < mBottom[index]
+                && mLeft[index] <= left && mTop[index] <= top
+                && mRight[index] >= right && mBottom[index] >= bottom;
+    }
+}
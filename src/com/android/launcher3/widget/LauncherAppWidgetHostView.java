@@ -16,6 +16,9 @@
 
 package com.android.launcher3.widget;
 
+import static com.android.launcher3.util.PriorityLaneExecutor.LANE_USER_VISIBLE;
+import static com.android.launcher3.util.PriorityLaneExecutor.getLane;
+
 import android.appwidget.AppWidgetHostView;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
@@ -103,7 +106,7 @@ public class LauncherAppWidgetHostView extends AppWidgetHostView
         setBackgroundResource(R.drawable.widget_internal_focus_bg);
 
         if (Utilities.ATLEAST_OREO) {
-            setExecutor(Utilities.THREAD_POOL_EXECUTOR);
+            setExecutor(getLane(LANE_USER_VISIBLE));
         }
     }
 
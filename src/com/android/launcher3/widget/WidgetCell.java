@@ -102,8 +102,19 @@ public class WidgetCell extends LinearLayout implements OnLayoutChangeListener {
 
     private void setContainerWidth() {
         DeviceProfile profile = mActivity.getDeviceProfile();
-        mCellSize = (int) (profile.cellWidthPx * WIDTH_SCALE);
-        mPresetPreviewSize = (int) (mCellSize * PREVIEW_SCALE);
+        mCellSize = getCellSize(profile);
+        mPresetPreviewSize = getPresetPreviewSize(profile);
+    }
+
+    private static int getCellSize(DeviceProfile profile) {
+        return (int) (profile.cellWidthPx * WIDTH_SCALE);
+    }
+
+    /**
+     * Returns the size of the previews requested by the cells for {@param profile}.
+     */
+    public static int getPresetPreviewSize(DeviceProfile profile) {
+        return (int) (getCellSize(profile) * PREVIEW_SCALE);
     }
 
     @Override
@@ -25,11 +25,11 @@ import android.view.View.OnClickListener;
 import android.view.View.OnLongClickListener;
 import android.view.ViewGroup;
 
+import com.android.launcher3.BaseActivity;
 import com.android.launcher3.IconCache;
 import com.android.launcher3.R;
 import com.android.launcher3.WidgetPreviewLoader;
 import com.android.launcher3.model.WidgetItem;
-import com.android.launcher3.util.LabelComparator;
 import com.android.launcher3.util.PackageUserKey;
 
 import java.util.ArrayList;
@@ -51,6 +51,7 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
     private static final String TAG = "WidgetsListAdapter";
     private static final boolean DEBUG = false;
 
+    private final BaseActivity mActivity;
     private final WidgetPreviewLoader mWidgetPreviewLoader;
     private final LayoutInflater mLayoutInflater;
 
@@ -65,6 +66,7 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
     public WidgetsListAdapter(Context context, LayoutInflater layoutInflater,
             WidgetPreviewLoader widgetPreviewLoader, IconCache iconCache,
             OnClickListener iconClickListener, OnLongClickListener iconLongClickListener) {
+        mActivity = BaseActivity.fromContext(context);
         mLayoutInflater = layoutInflater;
         mWidgetPreviewLoader = widgetPreviewLoader;
         mIconClickListener = iconClickListener;
@@ -102,6 +104,19 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
         mDiffReporter.process(mEntries, tempEntries, rowComparator);
     }
 
+    /**
+     * Loads the previews of the rows from {@param start} to {@param end} (inclusive) into
+     * memory, so that they are ready when these rows are scrolled in.
+     */
+    public void prefetchPreviews(int start, int end) {
+        int previewSize = WidgetCell.getPresetPreviewSize(mActivity.getDeviceProfile());
+        int last = Math.min(end, mEntries.size() - 1);
+        for (int i = Math.max(start, 0); i <= last; i++) {
+            mWidgetPreviewLoader.prefetchPreviews(mEntries.get(i).widgets, previewSize,
+                    previewSize, mActivity);
+        }
+    }
+
     @Override
     public int getItemCount() {
         return mEntries.size();
@@ -210,11 +225,9 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
      */
     public static class WidgetListRowEntryComparator implements Comparator<WidgetListRowEntry> {
 
-        private final LabelComparator mComparator = new LabelComparator();
-
         @Override
         public int compare(WidgetListRowEntry a, WidgetListRowEntry b) {
-            return mComparator.compare(a.pkgItem.title.toString(), b.pkgItem.title.toString());
+            return a.pkgItem.getLabelKey().compareTo(b.pkgItem.getLabelKey());
         }
     }
 }
@@ -33,6 +33,10 @@ import com.android.launcher3.R;
  */
 public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouchListener {
 
+    // Number of rows past the edge of the list, in the scroll direction, whose previews are
+    // loaded ahead of time.
+    private static final int PREFETCH_ROW_COUNT = 2;
+
     private WidgetsListAdapter mAdapter;
 
     private final int mScrollbarTop;
@@ -53,6 +57,12 @@ public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouch
         super(context, attrs, defStyleAttr);
         mScrollbarTop = getResources().getDimensionPixelSize(R.dimen.dynamic_grid_edge_margin);
         addOnItemTouchListener(this);
+        addOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                prefetchPreviews(dy);
+            }
+        });
     }
 
     public WidgetsRecyclerView(Context context, AttributeSet attrs, int defStyleAttr,
@@ -143,6 +153,28 @@ public class WidgetsRecyclerView extends BaseRecyclerView implements OnItemTouch
                 - mScrollbarTop;
     }
 
+    /**
+     * Prefetches the previews of the rows which are about to be scrolled in, {@param dy} being
+     * the last scroll amount.
+     */
+    private void prefetchPreviews(int dy) {
+        if (dy == 0 || isModelNotReady()) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) getLayoutManager();
+        if (dy > 0) {
+            int last = layoutManager.findLastVisibleItemPosition();
+            if (last != NO_POSITION) {
+                mAdapter.prefetchPreviews(last + 1, last + PREFETCH_ROW_COUNT);
+            }
+        } else {
+            int first = layoutManager.findFirstVisibleItemPosition();
+            if (first != NO_POSITION) {
+                mAdapter.prefetchPreviews(first - PREFETCH_ROW_COUNT, first - 1);
+            }
+        }
+    }
+
     private boolean isModelNotReady() {
         return mAdapter.getItemCount() == 0;
     }
@@ -61,6 +61,8 @@ public class UiFactory {
         return false;
     }
 
+    public static void dump(Launcher launcher, String prefix, PrintWriter writer) { }
+
     public static void prepareToShowOverview(Launcher launcher) { }
 
     public static void setBackButtonAlpha(Launcher launcher, float alpha, boolean animate) { }